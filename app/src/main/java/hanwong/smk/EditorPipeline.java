@@ -0,0 +1,446 @@
+package hanwong.smk;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import android.view.KeyEvent;
+import android.view.inputmethod.CompletionInfo;
+import android.view.inputmethod.ExtractedText;
+import android.view.inputmethod.ExtractedTextRequest;
+import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.InputConnectionWrapper;
+
+import java.util.ArrayList;
+
+/**
+ * Ordered queue between the keyboard and the editor.  Edits made through
+ * {@link #wrap} return at once and are sent to the editor, in order, from
+ * a thread of their own, so a slow application cannot stall touch
+ * handling.
+ *
+ * Whatever is queued when the thread wakes up goes out as one batch edit,
+ * and a composing text that is replaced before it was sent is left out.
+ * Every call to the editor is timed; once one takes longer than
+ * {@link #SLOW_CALL_MS}, the thread waits {@link #SLOW_BATCH_DELAY_MS}
+ * before each batch so that more keystrokes go out together, until the
+ * editor keeps up again.  Reads wait for the queue to be sent first, but
+ * for a frame at most: a read the queue is not through with by then gets
+ * no answer, as when the editor cannot be read, rather than text that
+ * our edits are still to change.
+ */
+final class EditorPipeline {
+
+    private static final String TAG = "EditorPipeline";
+
+    /** A call to the editor slower than this switches to slow mode. */
+    static final long SLOW_CALL_MS = 30;
+    /** How long to collect keystrokes before each batch in slow mode. */
+    static final long SLOW_BATCH_DELAY_MS = 50;
+    /** Batches without a slow call that end slow mode. */
+    private static final int FAST_BATCHES_TO_RECOVER = 8;
+    /** Longest a read waits for the queue to be sent: one frame. */
+    static final long FLUSH_TIMEOUT_MS = 16;
+
+    private static final int OP_COMMIT_TEXT = 0;
+    private static final int OP_SET_COMPOSING_TEXT = 1;
+    private static final int OP_SET_COMPOSING_REGION = 2;
+    private static final int OP_FINISH_COMPOSING_TEXT = 3;
+    private static final int OP_DELETE_SURROUNDING_TEXT = 4;
+    private static final int OP_SEND_KEY_EVENT = 5;
+    private static final int OP_SET_SELECTION = 6;
+    private static final int OP_COMMIT_COMPLETION = 7;
+    private static final int OP_PERFORM_EDITOR_ACTION = 8;
+    private static final int OP_PERFORM_CONTEXT_MENU_ACTION = 9;
+    private static final int OP_CLEAR_META_KEY_STATES = 10;
+
+    private static final class Op {
+        int type;
+        InputConnection target;
+        final StringBuilder text = new StringBuilder();
+        int a;
+        int b;
+        Object object;
+    }
+
+    private final Object mLock = new Object();
+    // Guarded by mLock: ops to send, ops being sent, and spare ops.
+    private ArrayList<Op> mQueued = new ArrayList<Op>();
+    private ArrayList<Op> mSending = new ArrayList<Op>();
+    private final ArrayList<Op> mPool = new ArrayList<Op>();
+    private boolean mDrainPosted;
+    private boolean mSlow;
+
+    // UI thread only: ops of a batch edit that is still open.
+    private final ArrayList<Op> mOpen = new ArrayList<Op>();
+    private int mBatchDepth;
+
+    // Sender thread only.
+    private int mFastBatches;
+
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private Connection mConnection;
+
+    private final Runnable mDrain = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
+
+    EditorPipeline() {
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_FOREGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Stops the sender thread once everything queued has been sent,
+     * without waiting for that.
+     */
+    void quit() {
+        if (!mOpen.isEmpty()) {
+            publish();
+        }
+        synchronized (mLock) {
+            mHandler.removeCallbacks(mDrain);
+            mHandler.post(mDrain);
+            mDrainPosted = true;
+        }
+        mHandler.post(new Runnable() {
+            public void run() {
+                mThread.quit();
+            }
+        });
+    }
+
+    /**
+     * The connection to make edits through, so that they are queued.
+     */
+    InputConnection wrap(InputConnection ic) {
+        if (mConnection == null || mConnection.mTarget != ic) {
+            mConnection = new Connection(ic);
+        }
+        return mConnection;
+    }
+
+    private Op obtain(int type, InputConnection target) {
+        Op op;
+        synchronized (mLock) {
+            op = mPool.isEmpty() ? new Op() : mPool.remove(mPool.size() - 1);
+        }
+        op.type = type;
+        op.target = target;
+        op.text.setLength(0);
+        op.object = null;
+        return op;
+    }
+
+    /**
+     * Queues a filled in op; it is sent once the batch edit it belongs to,
+     * if any, is closed.
+     */
+    private void queue(Op op) {
+        mOpen.add(op);
+        if (mBatchDepth == 0) {
+            publish();
+        }
+    }
+
+    private void queue(int type, InputConnection target, int a, int b, Object object) {
+        Op op = obtain(type, target);
+        op.a = a;
+        op.b = b;
+        op.object = object;
+        queue(op);
+    }
+
+    private void queue(int type, InputConnection target, CharSequence text,
+            int newCursorPosition) {
+        Op op = obtain(type, target);
+        op.text.append(text);
+        op.a = newCursorPosition;
+        queue(op);
+    }
+
+    private void publish() {
+        synchronized (mLock) {
+            mQueued.addAll(mOpen);
+            if (!mDrainPosted) {
+                mDrainPosted = true;
+                mHandler.postDelayed(mDrain, mSlow ? SLOW_BATCH_DELAY_MS : 0);
+            }
+        }
+        mOpen.clear();
+    }
+
+    /**
+     * Waits, for a frame at most, until everything queued has been sent.
+     * Returns false if it has not been by then.
+     */
+    boolean flush() {
+        return flush(FLUSH_TIMEOUT_MS);
+    }
+
+    /**
+     * Waits, for {@code timeoutMs} at most, until everything queued has
+     * been sent.  Returns false if it has not been by then.
+     */
+    boolean flush(long timeoutMs) {
+        if (!mOpen.isEmpty()) {
+            publish();
+        }
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (mLock) {
+            if (mSlow && !mQueued.isEmpty()) {
+                // Do not make the read wait for the batch delay as well.
+                mHandler.removeCallbacks(mDrain);
+                mHandler.post(mDrain);
+            }
+            while (!mQueued.isEmpty() || !mSending.isEmpty()) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    Log.w(TAG, "editor did not take queued edits in time");
+                    return false;
+                }
+                try {
+                    mLock.wait(wait);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void drain() {
+        ArrayList<Op> ops;
+        synchronized (mLock) {
+            mDrainPosted = false;
+            ops = mQueued;
+            mQueued = mSending;
+            mSending = ops;
+        }
+
+        long slowest = 0;
+        InputConnection batch = null;
+        for (int i = 0; i < ops.size(); i++) {
+            Op op = ops.get(i);
+            if (op.type == OP_SET_COMPOSING_TEXT && op.a == 1 && i + 1 < ops.size()) {
+                Op next = ops.get(i + 1);
+                if (next.target == op.target && (next.type == OP_SET_COMPOSING_TEXT
+                        || next.type == OP_COMMIT_TEXT)) {
+                    // Replaced before the editor would have shown it.
+                    continue;
+                }
+            }
+            if (op.target != batch) {
+                if (batch != null) {
+                    batch.endBatchEdit();
+                }
+                batch = op.target;
+                batch.beginBatchEdit();
+            }
+            long start = System.nanoTime();
+            send(op);
+            slowest = Math.max(slowest, System.nanoTime() - start);
+        }
+        if (batch != null) {
+            long start = System.nanoTime();
+            batch.endBatchEdit();
+            slowest = Math.max(slowest, System.nanoTime() - start);
+        }
+
+        boolean slowCall = slowest > SLOW_CALL_MS * 1000000L;
+        mFastBatches = slowCall ? 0 : mFastBatches + 1;
+        synchronized (mLock) {
+            if (slowCall && !mSlow) {
+                Log.w(TAG, "editor call took " + slowest / 1000000L + " ms, batching harder");
+                mSlow = true;
+            } else if (mSlow && mFastBatches >= FAST_BATCHES_TO_RECOVER) {
+                mSlow = false;
+            }
+            for (int i = 0; i < ops.size(); i++) {
+                Op op = ops.get(i);
+                op.target = null;
+                op.object = null;
+                mPool.add(op);
+            }
+            ops.clear();
+            mLock.notifyAll();
+        }
+    }
+
+    private static void send(Op op) {
+        InputConnection ic = op.target;
+        switch (op.type) {
+            case OP_COMMIT_TEXT:
+                ic.commitText(op.text, op.a);
+                break;
+            case OP_SET_COMPOSING_TEXT:
+                ic.setComposingText(op.text, op.a);
+                break;
+            case OP_SET_COMPOSING_REGION:
+                ic.setComposingRegion(op.a, op.b);
+                break;
+            case OP_FINISH_COMPOSING_TEXT:
+                ic.finishComposingText();
+                break;
+            case OP_DELETE_SURROUNDING_TEXT:
+                ic.deleteSurroundingText(op.a, op.b);
+                break;
+            case OP_SEND_KEY_EVENT:
+                ic.sendKeyEvent((KeyEvent) op.object);
+                break;
+            case OP_SET_SELECTION:
+                ic.setSelection(op.a, op.b);
+                break;
+            case OP_COMMIT_COMPLETION:
+                ic.commitCompletion((CompletionInfo) op.object);
+                break;
+            case OP_PERFORM_EDITOR_ACTION:
+                ic.performEditorAction(op.a);
+                break;
+            case OP_PERFORM_CONTEXT_MENU_ACTION:
+                ic.performContextMenuAction(op.a);
+                break;
+            case OP_CLEAR_META_KEY_STATES:
+                ic.clearMetaKeyStates(op.a);
+                break;
+        }
+    }
+
+    /**
+     * Queues edits for the editor it wraps; reads go to the editor once
+     * the queue has been sent, and get nothing if it was not in time.
+     */
+    private class Connection extends InputConnectionWrapper {
+
+        final InputConnection mTarget;
+
+        Connection(InputConnection target) {
+            super(target, false);
+            mTarget = target;
+        }
+
+        @Override
+        public boolean beginBatchEdit() {
+            mBatchDepth++;
+            return true;
+        }
+
+        @Override
+        public boolean endBatchEdit() {
+            if (mBatchDepth > 0 && --mBatchDepth == 0 && !mOpen.isEmpty()) {
+                publish();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean commitText(CharSequence text, int newCursorPosition) {
+            queue(OP_COMMIT_TEXT, mTarget, text, newCursorPosition);
+            return true;
+        }
+
+        @Override
+        public boolean setComposingText(CharSequence text, int newCursorPosition) {
+            queue(OP_SET_COMPOSING_TEXT, mTarget, text, newCursorPosition);
+            return true;
+        }
+
+        @Override
+        public boolean setComposingRegion(int start, int end) {
+            queue(OP_SET_COMPOSING_REGION, mTarget, start, end, null);
+            return true;
+        }
+
+        @Override
+        public boolean finishComposingText() {
+            queue(OP_FINISH_COMPOSING_TEXT, mTarget, 0, 0, null);
+            return true;
+        }
+
+        @Override
+        public boolean deleteSurroundingText(int beforeLength, int afterLength) {
+            queue(OP_DELETE_SURROUNDING_TEXT, mTarget, beforeLength, afterLength, null);
+            return true;
+        }
+
+        @Override
+        public boolean sendKeyEvent(KeyEvent event) {
+            queue(OP_SEND_KEY_EVENT, mTarget, 0, 0, event);
+            return true;
+        }
+
+        @Override
+        public boolean setSelection(int start, int end) {
+            queue(OP_SET_SELECTION, mTarget, start, end, null);
+            return true;
+        }
+
+        @Override
+        public boolean commitCompletion(CompletionInfo text) {
+            queue(OP_COMMIT_COMPLETION, mTarget, 0, 0, text);
+            return true;
+        }
+
+        @Override
+        public boolean performEditorAction(int editorAction) {
+            queue(OP_PERFORM_EDITOR_ACTION, mTarget, editorAction, 0, null);
+            return true;
+        }
+
+        @Override
+        public boolean performContextMenuAction(int id) {
+            queue(OP_PERFORM_CONTEXT_MENU_ACTION, mTarget, id, 0, null);
+            return true;
+        }
+
+        @Override
+        public boolean clearMetaKeyStates(int states) {
+            queue(OP_CLEAR_META_KEY_STATES, mTarget, states, 0, null);
+            return true;
+        }
+
+        @Override
+        public CharSequence getTextBeforeCursor(int n, int flags) {
+            if (!flush()) {
+                return null;
+            }
+            return super.getTextBeforeCursor(n, flags);
+        }
+
+        @Override
+        public CharSequence getTextAfterCursor(int n, int flags) {
+            if (!flush()) {
+                return null;
+            }
+            return super.getTextAfterCursor(n, flags);
+        }
+
+        @Override
+        public CharSequence getSelectedText(int flags) {
+            if (!flush()) {
+                return null;
+            }
+            return super.getSelectedText(flags);
+        }
+
+        @Override
+        public int getCursorCapsMode(int reqModes) {
+            if (!flush()) {
+                return 0;
+            }
+            return super.getCursorCapsMode(reqModes);
+        }
+
+        @Override
+        public ExtractedText getExtractedText(ExtractedTextRequest request, int flags) {
+            if (!flush()) {
+                return null;
+            }
+            return super.getExtractedText(request, flags);
+        }
+    }
+}
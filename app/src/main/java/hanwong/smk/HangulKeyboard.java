@@ -7,6 +7,8 @@ import android.inputmethodservice.Keyboard;
 
 public class HangulKeyboard extends Keyboard {
 
+    private SlideMap mSlides;
+
     public HangulKeyboard(Context context, int xmlLayoutResId) {
         super(context, xmlLayoutResId);
     }
@@ -19,7 +21,20 @@ public class HangulKeyboard extends Keyboard {
     @Override
     protected Key createKeyFromXml(Resources res, Row parent, int x, int y,
             XmlResourceParser parser) {
-        return new HangulKey(res, parent, x, y, parser);
+        Key key = new HangulKey(res, parent, x, y, parser);
+        // Called from the superclass constructor, before our fields are set.
+        if (mSlides == null) {
+            mSlides = new SlideMap();
+        }
+        mSlides.add(res, key.codes[0], parser);
+        return key;
+    }
+
+    SlideMap getSlideMap() {
+        if (mSlides == null) {
+            mSlides = new SlideMap();
+        }
+        return mSlides;
     }
 
     static class HangulKey extends Keyboard.Key {
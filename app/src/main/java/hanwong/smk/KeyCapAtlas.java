@@ -0,0 +1,341 @@
+package hanwong.smk;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
+import android.inputmethodservice.Keyboard;
+import android.inputmethodservice.Keyboard.Key;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Draws keyboards from key caps rasterized ahead of time.  Each label and
+ * icon a keyboard shows is drawn once, the way the stock view would, into
+ * a cell of one bitmap that every keyboard and both shift states share;
+ * a cap two keyboards have in common gets one cell.  Drawing a key is
+ * then its background and one blit, with no text to measure or shape.
+ *
+ * Which cell each key shows, and where, is worked out once per keyboard
+ * and shift state.  If a key's label or icon is swapped later, as the
+ * enter key's is for each editor, the whole atlas is made again, so that
+ * caps no key shows any more do not pile up; so it is when the view
+ * changes width.  A new view, as for a new theme, makes its own.
+ */
+final class KeyCapAtlas {
+
+    private static final int UNSHIFTED = 0;
+    private static final int SHIFTED = 1;
+
+    // Space between cells, so that filtering never bleeds a neighbour in.
+    private static final int GAP = 1;
+
+    /** One cap, and where it lies in the bitmap. */
+    private static final class Cell {
+        String label;
+        boolean small;
+        Drawable icon;
+        final Rect rect = new Rect();
+        // From the cell's left to the label's centre, and top to baseline.
+        int centerX;
+        int baseline;
+    }
+
+    /** Which cell each key of a keyboard shows, in one shift state. */
+    private static final class Page {
+        final Cell[] cells;
+        // Where the cell goes, from the key's top left corner.
+        final int[] x;
+        final int[] y;
+        // What the caps were made from, to notice keys that changed.
+        final CharSequence[] labels;
+        final Drawable[] icons;
+
+        Page(int keys) {
+            cells = new Cell[keys];
+            x = new int[keys];
+            y = new int[keys];
+            labels = new CharSequence[keys];
+            icons = new Drawable[keys];
+        }
+    }
+
+    private final Drawable mKeyBackground;
+    private final Rect mPadding = new Rect();
+    private final float mKeyTextSize;
+    private final float mLabelTextSize;
+    private final float mShadowRadius;
+    private final int mShadowColor;
+    private final Paint mPaint = new Paint();
+    // Room around a label for its shadow.
+    private final int mMargin;
+
+    // In the order they were placed, which is the order they are drawn.
+    private final ArrayList<Cell> mCells = new ArrayList<Cell>();
+    private final HashMap<String, Cell> mLabelCells = new HashMap<String, Cell>();
+    private final HashMap<String, Cell> mSmallLabelCells = new HashMap<String, Cell>();
+    // By constant state, which the Drawables of one resource share.
+    private final HashMap<Object, Cell> mIconCells = new HashMap<Object, Cell>();
+    private final HashMap<Keyboard, Page[]> mPages = new HashMap<Keyboard, Page[]>();
+    private Bitmap mBitmap;
+    // Cells before this one are drawn in mBitmap.
+    private int mRasterized;
+    private int mWidth;
+    private int mShelfX;
+    private int mShelfY;
+    private int mShelfHeight;
+    private final Rect mClip = new Rect();
+    private final Rect mDst = new Rect();
+
+    KeyCapAtlas(Drawable keyBackground, float keyTextSize, float labelTextSize,
+            int keyTextColor, int shadowColor, float shadowRadius) {
+        mKeyBackground = keyBackground;
+        mKeyBackground.getPadding(mPadding);
+        mKeyTextSize = keyTextSize;
+        mLabelTextSize = labelTextSize;
+        mShadowColor = shadowColor;
+        mShadowRadius = shadowRadius;
+        mMargin = (int) Math.ceil(shadowRadius) + 1;
+        mPaint.setAntiAlias(true);
+        mPaint.setTextAlign(Paint.Align.CENTER);
+        mPaint.setColor(keyTextColor);
+    }
+
+    /**
+     * Forgets every cap, for the next draw to make them again.
+     */
+    void clear() {
+        if (mBitmap != null) {
+            mBitmap.recycle();
+            mBitmap = null;
+        }
+        mCells.clear();
+        mLabelCells.clear();
+        mSmallLabelCells.clear();
+        mIconCells.clear();
+        mPages.clear();
+        mRasterized = 0;
+        mShelfX = 0;
+        mShelfY = 0;
+        mShelfHeight = 0;
+        mWidth = 0;
+    }
+
+    /**
+     * Draws the keys of a keyboard that meet the canvas clip, with the
+     * keyboard's corner at {@code left}, {@code top}.  {@code width} is
+     * the view's, and bounds the bitmap.
+     */
+    void draw(Canvas canvas, Keyboard keyboard, int left, int top, int width) {
+        if (mWidth != width) {
+            clear();
+            mWidth = width;
+        }
+        List<Key> keys = keyboard.getKeys();
+        Page page = page(keyboard, keys);
+        if (!canvas.getClipBounds(mClip)) {
+            return;
+        }
+        Drawable background = mKeyBackground;
+        for (int i = 0; i < keys.size(); i++) {
+            Key key = keys.get(i);
+            int x = left + key.x;
+            int y = top + key.y;
+            if (!mClip.intersects(x, y, x + key.width, y + key.height)) {
+                continue;
+            }
+            background.setState(key.getCurrentDrawableState());
+            background.setBounds(x, y, x + key.width, y + key.height);
+            background.draw(canvas);
+            Cell cell = page.cells[i];
+            if (cell != null) {
+                x += page.x[i];
+                y += page.y[i];
+                mDst.set(x, y, x + cell.rect.width(), y + cell.rect.height());
+                canvas.drawBitmap(mBitmap, cell.rect, mDst, null);
+            }
+        }
+    }
+
+    private Page page(Keyboard keyboard, List<Key> keys) {
+        boolean shifted = keyboard.isShifted();
+        int state = shifted ? SHIFTED : UNSHIFTED;
+        Page[] pages = mPages.get(keyboard);
+        Page page = pages != null ? pages[state] : null;
+        if (page == null || !current(page, keys)) {
+            if (page != null) {
+                int width = mWidth;
+                clear();
+                mWidth = width;
+                pages = null;
+            }
+            if (pages == null) {
+                pages = new Page[2];
+                mPages.put(keyboard, pages);
+            }
+            page = makePage(keys, shifted);
+            pages[state] = page;
+            rasterize();
+        }
+        return page;
+    }
+
+    private static boolean current(Page page, List<Key> keys) {
+        if (page.cells.length != keys.size()) {
+            return false;
+        }
+        for (int i = 0; i < page.cells.length; i++) {
+            Key key = keys.get(i);
+            if (key.label != page.labels[i] || key.icon != page.icons[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Page makePage(List<Key> keys, boolean shifted) {
+        Rect padding = mPadding;
+        Page page = new Page(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            Key key = keys.get(i);
+            page.labels[i] = key.label;
+            page.icons[i] = key.icon;
+            // Laid out as KeyboardView.onBufferDraw lays out its keys.
+            int innerWidth = key.width - padding.left - padding.right;
+            int innerHeight = key.height - padding.top - padding.bottom;
+            Cell cell;
+            if (key.label != null) {
+                String label = key.label.toString();
+                if (shifted && label.length() < 3
+                        && Character.isLowerCase(label.charAt(0))) {
+                    label = label.toUpperCase();
+                }
+                cell = labelCell(label, label.length() > 1 && key.codes.length < 2);
+                setTextStyle(cell.small);
+                float baseline = innerHeight / 2
+                        + (mPaint.getTextSize() - mPaint.descent()) / 2 + padding.top;
+                page.x[i] = innerWidth / 2 + padding.left - cell.centerX;
+                page.y[i] = Math.round(baseline) - cell.baseline;
+            } else if (key.icon != null) {
+                cell = iconCell(key.icon);
+                if (cell != null) {
+                    page.x[i] = (innerWidth - cell.rect.width()) / 2 + padding.left;
+                    page.y[i] = (innerHeight - cell.rect.height()) / 2 + padding.top;
+                }
+            } else {
+                cell = null;
+            }
+            page.cells[i] = cell;
+        }
+        return page;
+    }
+
+    private void setTextStyle(boolean small) {
+        if (small) {
+            mPaint.setTextSize(mLabelTextSize);
+            mPaint.setTypeface(Typeface.DEFAULT_BOLD);
+        } else {
+            mPaint.setTextSize(mKeyTextSize);
+            mPaint.setTypeface(Typeface.DEFAULT);
+        }
+    }
+
+    private Cell labelCell(String label, boolean small) {
+        HashMap<String, Cell> cells = small ? mSmallLabelCells : mLabelCells;
+        Cell cell = cells.get(label);
+        if (cell != null) {
+            return cell;
+        }
+        cell = new Cell();
+        cell.label = label;
+        cell.small = small;
+        setTextStyle(small);
+        Paint.FontMetrics metrics = mPaint.getFontMetrics();
+        int width = (int) Math.ceil(mPaint.measureText(label)) + 2 * mMargin;
+        cell.centerX = width / 2;
+        cell.baseline = mMargin + (int) Math.ceil(-metrics.top);
+        place(cell, width, cell.baseline + (int) Math.ceil(metrics.bottom) + mMargin);
+        cells.put(label, cell);
+        return cell;
+    }
+
+    private Cell iconCell(Drawable icon) {
+        int width = icon.getIntrinsicWidth();
+        int height = icon.getIntrinsicHeight();
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        Object state = icon.getConstantState();
+        if (state == null) {
+            state = icon;
+        }
+        Cell cell = mIconCells.get(state);
+        if (cell != null) {
+            return cell;
+        }
+        cell = new Cell();
+        cell.icon = icon;
+        place(cell, width, height);
+        mIconCells.put(state, cell);
+        return cell;
+    }
+
+    // Packs cells in shelves, left to right, each shelf as high as its
+    // highest cell.
+    private void place(Cell cell, int width, int height) {
+        if (mShelfX > 0 && mShelfX + width > mWidth) {
+            mShelfY += mShelfHeight;
+            mShelfX = 0;
+            mShelfHeight = 0;
+        }
+        cell.rect.set(mShelfX, mShelfY, mShelfX + width, mShelfY + height);
+        mShelfX += width + GAP;
+        mShelfHeight = Math.max(mShelfHeight, height + GAP);
+        mCells.add(cell);
+    }
+
+    // Draws the cells placed since the last time.  When they no longer
+    // fit, the bitmap is made again half as high again as they need, and
+    // every cell drawn into it.
+    private void rasterize() {
+        if (mRasterized == mCells.size()) {
+            return;
+        }
+        int width = 1;
+        for (int i = 0; i < mCells.size(); i++) {
+            width = Math.max(width, mCells.get(i).rect.right);
+        }
+        int height = mShelfY + mShelfHeight;
+        if (mBitmap == null || mBitmap.getWidth() < width || mBitmap.getHeight() < height) {
+            if (mBitmap != null) {
+                mBitmap.recycle();
+            }
+            mBitmap = Bitmap.createBitmap(Math.max(width, mWidth), height + height / 2,
+                    Bitmap.Config.ARGB_8888);
+            mRasterized = 0;
+        }
+        Canvas canvas = new Canvas(mBitmap);
+        for (int i = mRasterized; i < mCells.size(); i++) {
+            Cell cell = mCells.get(i);
+            Rect rect = cell.rect;
+            if (cell.label != null) {
+                setTextStyle(cell.small);
+                mPaint.setShadowLayer(mShadowRadius, 0, 0, mShadowColor);
+                canvas.drawText(cell.label, rect.left + cell.centerX,
+                        rect.top + cell.baseline, mPaint);
+                mPaint.setShadowLayer(0, 0, 0, 0);
+            } else {
+                Drawable icon = cell.icon;
+                Rect bounds = icon.copyBounds();
+                icon.setBounds(rect);
+                icon.draw(canvas);
+                icon.setBounds(bounds);
+            }
+        }
+        mRasterized = mCells.size();
+    }
+}
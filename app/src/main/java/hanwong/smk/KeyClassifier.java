@@ -0,0 +1,73 @@
+package hanwong.smk;
+
+/**
+ * Character classes of key codes, looked up in one table read so that
+ * classifying a key allocates nothing.  The table covers everything up to
+ * the end of the Hangul compatibility jamo; codes above it are only ever
+ * letters, and negative codes are the keyboard's special keys.
+ */
+final class KeyClassifier {
+
+    static final int SEPARATOR = 1;
+    /** Any letter, as {@link Character#isLetter(int)}. */
+    static final int LETTER = 1 << 1;
+    static final int LATIN_LOWER = 1 << 2;
+    static final int LATIN_UPPER = 1 << 3;
+    static final int JAMO_CONSONANT = 1 << 4;
+    static final int JAMO_VOWEL = 1 << 5;
+    /** Shift, delete, mode change and the other negative key codes. */
+    static final int SPECIAL = 1 << 6;
+
+    private static final char JAMO_FIRST = 0x3131;       // kiyeok
+    private static final char JAMO_FIRST_VOWEL = 0x314F; // a
+    private static final char JAMO_LAST = 0x3163;        // i
+
+    private final byte[] mClasses;
+
+    /**
+     * @param separators the characters that end a word
+     */
+    KeyClassifier(CharSequence separators) {
+        int size = JAMO_LAST + 1;
+        for (int i = 0; i < separators.length(); i++) {
+            size = Math.max(size, separators.charAt(i) + 1);
+        }
+        mClasses = new byte[size];
+        for (int c = 0; c < size; c++) {
+            int classes = 0;
+            if (Character.isLetter(c)) {
+                classes |= LETTER;
+            }
+            if (c >= 'a' && c <= 'z') {
+                classes |= LATIN_LOWER;
+            } else if (c >= 'A' && c <= 'Z') {
+                classes |= LATIN_UPPER;
+            } else if (c >= JAMO_FIRST && c < JAMO_FIRST_VOWEL) {
+                classes |= JAMO_CONSONANT;
+            } else if (c >= JAMO_FIRST_VOWEL && c <= JAMO_LAST) {
+                classes |= JAMO_VOWEL;
+            }
+            mClasses[c] = (byte) classes;
+        }
+        for (int i = 0; i < separators.length(); i++) {
+            mClasses[separators.charAt(i)] |= SEPARATOR;
+        }
+    }
+
+    /**
+     * The classes of a key code, or-ed together.
+     */
+    int classesOf(int code) {
+        if (code < 0) {
+            return SPECIAL;
+        }
+        if (code < mClasses.length) {
+            return mClasses[code];
+        }
+        return Character.isLetter(code) ? LETTER : 0;
+    }
+
+    boolean is(int code, int classes) {
+        return (classesOf(code) & classes) != 0;
+    }
+}
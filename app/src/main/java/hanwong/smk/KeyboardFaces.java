@@ -0,0 +1,138 @@
+package hanwong.smk;
+
+import android.graphics.drawable.Drawable;
+import android.inputmethodservice.Keyboard;
+import android.inputmethodservice.Keyboard.Key;
+import android.text.TextUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The unshifted and shifted faces of a keyboard whose shifted layout is a
+ * second XML file with the same keys in the same places, as the Hangul
+ * and symbol keyboards have.  Shifting copies the other face onto just
+ * the keys that differ, found once when the keyboards are loaded, so the
+ * view stays on one Keyboard and redraws only those keys, where swapping
+ * in the other Keyboard would lay out and redraw all of them.
+ */
+final class KeyboardFaces {
+
+    private static final int UNSHIFTED = 0;
+    private static final int SHIFTED = 1;
+
+    private final Keyboard mKeyboard;
+    private final Key[] mKeys;
+    // Indices in the keyboard of the keys that differ, and their faces.
+    private final int[] mChanged;
+    private final int[][][] mCodes;
+    private final CharSequence[][] mLabels;
+    private final CharSequence[][] mTexts;
+    private final Drawable[][] mIcons;
+    private final Drawable[][] mPreviews;
+    private boolean mShifted;
+
+    /**
+     * @param keyboard the keyboard shown, with its unshifted face on
+     * @param shifted the same keyboard loaded from the shifted layout,
+     *        only read from
+     */
+    KeyboardFaces(Keyboard keyboard, Keyboard shifted) {
+        List<Key> keys = keyboard.getKeys();
+        List<Key> shiftedKeys = shifted.getKeys();
+        if (keys.size() != shiftedKeys.size()) {
+            throw new IllegalArgumentException("shifted layout has "
+                    + shiftedKeys.size() + " keys, not " + keys.size());
+        }
+        int[] changed = new int[keys.size()];
+        int count = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            if (differ(keys.get(i), shiftedKeys.get(i))) {
+                changed[count++] = i;
+            }
+        }
+        mKeyboard = keyboard;
+        mChanged = new int[count];
+        System.arraycopy(changed, 0, mChanged, 0, count);
+        mKeys = new Key[count];
+        mCodes = new int[2][count][];
+        mLabels = new CharSequence[2][count];
+        mTexts = new CharSequence[2][count];
+        mIcons = new Drawable[2][count];
+        mPreviews = new Drawable[2][count];
+        for (int n = 0; n < count; n++) {
+            mKeys[n] = keys.get(mChanged[n]);
+            save(UNSHIFTED, n, mKeys[n]);
+            save(SHIFTED, n, shiftedKeys.get(mChanged[n]));
+        }
+    }
+
+    private static boolean differ(Key a, Key b) {
+        return !Arrays.equals(a.codes, b.codes)
+                || !TextUtils.equals(a.label, b.label)
+                || !TextUtils.equals(a.text, b.text)
+                || !sameDrawable(a.icon, b.icon)
+                || !sameDrawable(a.iconPreview, b.iconPreview);
+    }
+
+    // The two layouts load their own Drawables, but one resource's share
+    // a constant state.
+    private static boolean sameDrawable(Drawable a, Drawable b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.getConstantState() == b.getConstantState();
+    }
+
+    private void save(int face, int n, Key key) {
+        mCodes[face][n] = key.codes;
+        mLabels[face][n] = key.label;
+        mTexts[face][n] = key.text;
+        mIcons[face][n] = key.icon;
+        mPreviews[face][n] = key.iconPreview;
+    }
+
+    Keyboard getKeyboard() {
+        return mKeyboard;
+    }
+
+    boolean isShifted() {
+        return mShifted;
+    }
+
+    /**
+     * Puts one face on, and the keyboard's shift key with it.  Returns
+     * false if that face was on already.
+     */
+    boolean setShifted(boolean shifted) {
+        if (shifted == mShifted) {
+            return false;
+        }
+        mShifted = shifted;
+        int face = shifted ? SHIFTED : UNSHIFTED;
+        for (int n = 0; n < mKeys.length; n++) {
+            Key key = mKeys[n];
+            key.codes = mCodes[face][n];
+            key.label = mLabels[face][n];
+            key.text = mTexts[face][n];
+            key.icon = mIcons[face][n];
+            key.iconPreview = mPreviews[face][n];
+        }
+        mKeyboard.setShifted(shifted);
+        return true;
+    }
+
+    /**
+     * How many keys the faces differ on.
+     */
+    int getChangedCount() {
+        return mChanged.length;
+    }
+
+    /**
+     * The index in the keyboard of the {@code n}th key that differs.
+     */
+    int getChangedKey(int n) {
+        return mChanged[n];
+    }
+}
@@ -28,6 +28,7 @@ import android.view.inputmethod.EditorInfo;
 public class LatinKeyboard extends Keyboard {
 
     private Key mEnterKey;
+    private SlideMap mSlides;
     
     public LatinKeyboard(Context context, int xmlLayoutResId) {
         super(context, xmlLayoutResId);
@@ -45,9 +46,21 @@ public class LatinKeyboard extends Keyboard {
         if (key.codes[0] == 10) {
             mEnterKey = key;
         }
+        // Called from the superclass constructor, before our fields are set.
+        if (mSlides == null) {
+            mSlides = new SlideMap();
+        }
+        mSlides.add(res, key.codes[0], parser);
         
         return key;
     }
+
+    SlideMap getSlideMap() {
+        if (mSlides == null) {
+            mSlides = new SlideMap();
+        }
+        return mSlides;
+    }
     
     /**
      * This looks at the ime options given by the current editor, to set the
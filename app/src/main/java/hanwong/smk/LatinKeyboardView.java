@@ -20,14 +20,16 @@
  package hanwong.smk; 
   
   
- import android.view.Display; 
  import android.view.MotionEvent; 
- import android.view.WindowManager; 
  import android.content.Context; 
  import android.inputmethodservice.KeyboardView; 
+ import android.inputmethodservice.Keyboard; 
  import android.inputmethodservice.Keyboard.Key; 
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
 import android.util.AttributeSet; 
-import android.util.Log;
+
+import java.util.List;
   
  /* This class is the View of the keyboard. 
   * Currently extends KeyboardView class. 
@@ -36,14 +38,51 @@ import android.util.Log;
  public class LatinKeyboardView extends KeyboardView { 
           
      static final int KEYCODE_OPTIONS = -100; 
-     static int direction; 
       
      static boolean sShiftState; 
      static boolean sAltState; 
-      
-     static int screenW, screenH; 
-      
-     static long downTime=0; 
+
+     private final SlideClassifier mSlides;
+     // The slide of the pointer the last event was about, for the key it types.
+     private int mSlideDirection;
+     private int mSlideAxis;
+     private int mSlideTier;
+     private int mLastDirection;
+     private int mLastTier;
+     // The key the pointer went down on has slides of its own.
+     private boolean mSlidable;
+     // Set while more than one finger has been down: the keys are typed
+     // by mRollover, not by the superclass.
+     private final RolloverTracker mRollover = new RolloverTracker();
+     private boolean mRolling;
+     // Draws the Hangul keyboards, whose keys are all single glyphs.
+     private final KeyCapAtlas mCaps;
+
+     /**
+      * Gets horizontal drags of the space bar, which move the cursor.
+      */
+     interface OnCursorDragListener {
+         void onCursorDragStart();
+
+         /** The drag went {@code chars} characters further, negative to the left. */
+         void onCursorDrag(int chars);
+
+         void onCursorDragEnd();
+     }
+
+     // A drag this many characters wide on the space bar starts moving the cursor.
+     private static final int DRAG_START_CHARS = 2;
+
+     private OnCursorDragListener mCursorDragListener;
+     private int mCharWidth;
+     private boolean mSpaceDown;
+     private boolean mDragging;
+     private float mDragX;  // where the drag last moved the cursor
+     private float mLastX;
+
+     void setOnCursorDragListener(OnCursorDragListener listener) {
+         mCursorDragListener = listener;
+     }
           
      @Override 
      public boolean setShifted(boolean newState) { 
@@ -51,11 +90,7 @@ import android.util.Log;
          if (newState) 
                  sAltState=false; 
           
-         super.setShifted(!(sShiftState || sAltState)); 
-          
-         return super.setShifted(sShiftState || sAltState); 
-     //  invalidate(); 
-     //  return sShiftState; 
+         return shiftKeys(sShiftState || sAltState); 
      } 
   
      public void setAlt(boolean newState) { 
@@ -64,9 +99,44 @@ import android.util.Log;
          if (newState) 
                  sShiftState=false; 
           
-         super.setShifted(!(sShiftState || sAltState)); 
-         super.setShifted(sShiftState || sAltState); 
+         shiftKeys(sShiftState || sAltState); 
      } 
+
+    /**
+     * Shifts the keyboard and redraws just the keys that look different
+     * for it: the shift key, and those whose label the superclass draws
+     * in capitals when shifted.  Returns false if it already was.
+     */
+    private boolean shiftKeys(boolean shifted) {
+        Keyboard keyboard = getKeyboard();
+        if (keyboard == null || !keyboard.setShifted(shifted)) {
+            return false;
+        }
+        List<Key> keys = keyboard.getKeys();
+        for (int i = 0; i < keys.size(); i++) {
+            CharSequence label = keys.get(i).label;
+            if (label != null && label.length() < 3
+                    && Character.isLowerCase(label.charAt(0))) {
+                invalidateKey(i);
+            }
+        }
+        invalidateKey(keyboard.getShiftKeyIndex());
+        return true;
+    }
+
+    /**
+     * Puts on the shifted or unshifted face of a keyboard, redrawing only
+     * the keys that change if it is the one shown.
+     */
+    void setFace(KeyboardFaces faces, boolean shifted) {
+        if (!faces.setShifted(shifted) || faces.getKeyboard() != getKeyboard()) {
+            return;
+        }
+        for (int n = 0; n < faces.getChangedCount(); n++) {
+            invalidateKey(faces.getChangedKey(n));
+        }
+        invalidateKey(faces.getKeyboard().getShiftKeyIndex());
+    }
       
      public void setNormal() { 
          if (sAltState) { 
@@ -87,19 +157,57 @@ import android.util.Log;
          } 
      } 
       
-     // calculate slide threshold 
-     public void calcMinSlide() { 
-         int min = Math.min(screenW, screenH); 
-         minSlide=(min*SoftKeyboard.slideThreshold)/100; 
-     } 
-      
+     /**
+      * The cardinal direction the pointer typing the current key slid,
+      * one of the first four {@link SlideClassifier} directions.
+      */
+     int getSlideAxis() {
+         return mSlideAxis;
+     }
+
+     /**
+      * The slide of a pointer still down, by pointer id.
+      */
+     int getSlideDirection(int pointerId) {
+         return mSlides.getDirection(pointerId);
+     }
+
+     /**
+      * Makes the next key typed without touch count as slid a short way
+      * in a cardinal direction.
+      */
+     void setSlideDirection(int direction) {
+         mSlideDirection = direction;
+         mSlideAxis = direction;
+         mSlideTier = direction != SlideClassifier.NONE ? SlideClassifier.NEAR : 0;
+     }
+
+     /**
+      * What the current key types for the way it was slid, as its
+      * keyboard's layout declares; {@code code} if it was not slid.
+      */
+     int slide(int code) {
+         SlideMap map = slideMapOf(getKeyboard());
+         return map != null ? map.get(code, mSlideDirection, mSlideAxis, mSlideTier) : code;
+     }
+
+     private static SlideMap slideMapOf(Keyboard keyboard) {
+         if (keyboard instanceof LatinKeyboard) {
+                 return ((LatinKeyboard) keyboard).getSlideMap();
+         } else if (keyboard instanceof HangulKeyboard) {
+                 return ((HangulKeyboard) keyboard).getSlideMap();
+         }
+         return null;
+     }
       
      public LatinKeyboardView(Context context, AttributeSet attrs) { 
        super(context, attrs); 
        this.setPreviewEnabled(false); 
-       Display display = ((WindowManager) context.getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay(); 
-       screenW = display.getWidth(); 
-       screenH = display.getHeight(); 
+       mSlides = new SlideClassifier(
+               context.getResources().getDimension(R.dimen.slide_threshold),
+               context.getResources().getDimension(R.dimen.slide_far_threshold));
+       mCharWidth = context.getResources().getDimensionPixelSize(R.dimen.trackpad_char_width);
+       mCaps = newKeyCapAtlas(context, attrs, android.R.attr.keyboardViewStyle);
        //setProximityCorrectionEnabled(false); 
         
      } 
@@ -107,17 +215,83 @@ import android.util.Log;
      public LatinKeyboardView(Context context, AttributeSet attrs, int defStyle) { 
          super(context, attrs, defStyle); 
          this.setPreviewEnabled(false); 
-         Display display = ((WindowManager) context.getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay(); 
-         screenW = display.getWidth(); 
-         screenH = display.getHeight(); 
+         mSlides = new SlideClassifier(
+                 context.getResources().getDimension(R.dimen.slide_threshold),
+                 context.getResources().getDimension(R.dimen.slide_far_threshold));
+         mCharWidth = context.getResources().getDimensionPixelSize(R.dimen.trackpad_char_width);
+         mCaps = newKeyCapAtlas(context, attrs, defStyle);
           
          //setProximityCorrectionEnabled(false); 
      } 
+
+    /**
+     * Makes the atlas draw keys in the same theme as the superclass.
+     */
+    private static KeyCapAtlas newKeyCapAtlas(Context context, AttributeSet attrs, int defStyle) {
+        TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.KeyCaps, defStyle, 0);
+        // Defaults as in the superclass.
+        KeyCapAtlas caps = new KeyCapAtlas(
+                a.getDrawable(R.styleable.KeyCaps_android_keyBackground),
+                a.getDimension(R.styleable.KeyCaps_android_keyTextSize, 18),
+                a.getDimension(R.styleable.KeyCaps_android_labelTextSize, 14),
+                a.getColor(R.styleable.KeyCaps_android_keyTextColor, 0xFF000000),
+                a.getColor(R.styleable.KeyCaps_android_shadowColor, 0),
+                a.getFloat(R.styleable.KeyCaps_android_shadowRadius, 0f));
+        a.recycle();
+        return caps;
+    }
+
+    /**
+     * Draws the Hangul keyboards from the key cap atlas, and only the keys
+     * that need it: for a single key the clip is that key.  Other
+     * keyboards are left to the superclass.
+     */
+    @Override
+    public void onDraw(Canvas canvas) {
+        Keyboard keyboard = getKeyboard();
+        if (keyboard instanceof HangulKeyboard) {
+            mCaps.draw(canvas, keyboard, getPaddingLeft(), getPaddingTop(), getWidth());
+        } else {
+            super.onDraw(canvas);
+        }
+    }
+
+    /**
+     * On the Hangul keyboards, only marks the key for {@link #onDraw}: the
+     * superclass would also draw it into a buffer of its own.
+     */
+    @Override
+    public void invalidateKey(int keyIndex) {
+        Keyboard keyboard = getKeyboard();
+        if (!(keyboard instanceof HangulKeyboard)) {
+            super.invalidateKey(keyIndex);
+            return;
+        }
+        List<Key> keys = keyboard.getKeys();
+        if (keyIndex < 0 || keyIndex >= keys.size()) {
+            return;
+        }
+        Key key = keys.get(keyIndex);
+        int x = key.x + getPaddingLeft();
+        int y = key.y + getPaddingTop();
+        invalidate(x, y, x + key.width, y + key.height);
+    }
+
+    @Override
+    public void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mCaps.clear();
+    }
           
   
          //  
      @Override 
      protected boolean onLongPress(Key key) {             
+                 // Holding the space bar turns it into a trackpad.
+                 if (key.codes[0] == ' ' && mCursorDragListener != null) {
+                         startCursorDrag(mLastX);
+                         return true;
+                 }
         
                  return super.onLongPress(key); 
                 
@@ -130,95 +304,209 @@ import android.util.Log;
          } 
      */ 
       
-     public float downX; 
-     public float downY; 
-     public static float minSlide=0; 
-     private int lastDirection=-2; 
-      
-      
      public boolean onTouchEvent(MotionEvent me) { 
-         if (minSlide==0) 
-                   calcMinSlide(); 
-  
          int act = me.getAction(); 
-         if (act==android.view.MotionEvent.ACTION_DOWN) { 
-                 //keysAtOnce=0; 
-                 downTime=me.getEventTime(); 
-                 lastDirection=direction=0; 
-                 downX=me.getX(); 
-                 downY=me.getY(); 
-         } else if (act==android.view.MotionEvent.ACTION_UP || act==android.view.MotionEvent.ACTION_MOVE) { 
-                 float dy=me.getY()-downY; 
-                 float dx=me.getX()-downX; 
-                 if (Math.abs(dx)>minSlide || Math.abs(dy)>minSlide) { 
-                         if (dy > dx) { 
-                                 if (dy > -dx) { 
-                                         //direction=4;  
-                                         if(dy>30){
-                                            direction=4;
-                                            Log.i("working", "on DirectionX[" +dx+"]");
-                                            Log.i("working", "on DirectionY[" +dy+"]");}
-                                         
-                                 } else { 
-                                	 if(dx<-30){
-                                         direction=1;
-                                         Log.i("working", "on DirectionX[" +dx+"]");
-                                         Log.i("working", "on DirectionY[" +dy+"]");} 
-                                 } 
-                         } else { 
-                                 if (dy > -dx) { 
-                                	 
-                                	 if(dx>30){
-                                         direction=3;
-                                         Log.i("working", "on DirectionX[" +dx+"]");
-                                         Log.i("working", "on DirectionY[" +dy+"]");}
-                                	 
-                                 } else { 
-                                	 
-                                	 if(dy<-30){
-                                         direction=2;
-                                         Log.i("working", "on DirectionX[" +dx+"]");
-                                         Log.i("working", "on DirectionY[" +dy+"]");}
-                                	 
-                                 } 
-                         } 
-                 } else { 
-                         direction=0; 
-                 } 
-  
-                 if (act==android.view.MotionEvent.ACTION_MOVE) { 
-                                 /* TODO Leave it like this by the moment */ 
-                         // allow redraw only on slidable keys 
-                         //  except shift, which would have side effects 
-                                 if (lastDirection!=direction && ( 
-                                                 ( 
-                                                		 SoftKeyboard.pressedCode>='0' && 
-                                                		 SoftKeyboard.pressedCode<='9' 
-                                                 ) || SoftKeyboard.pressedCode=='*' 
-                                          ) 
-                                         ) { 
-                                         lastDirection=direction; 
-                                         downTime=me.getEventTime(); 
-  
-                                         /* 
-                                          * Disabled. It made some keystrokes to get lost 
-                                 // hack to force update of iconPreview 
-                                 me.setLocation(0, 0); 
-                                 super.onTouchEvent(me); 
-                                 */ 
-                                 me.setLocation(downX, downY);                                                                    
-                         } else { 
-                                 // cancel to prevent highliting when rolling over other keys 
-                                 return true; 
-                         } 
-                 } 
-         } 
-          
-                 // after we return here the service will get notified, etc 
-         Log.i("working", "on.....[" +me+"]");
+         int slidPointer = mSlides.onTouchEvent(me);
+         mSlideDirection = mSlides.getDirection(slidPointer);
+         mSlideAxis = mSlides.getAxis(slidPointer);
+         mSlideTier = mSlides.getTier(slidPointer);
+         int pointerId = me.getPointerId(0);
+         float downX = mSlides.getDownX(pointerId);
+         if (act == MotionEvent.ACTION_DOWN) {
+                 Key key = keyAt(me.getX(), me.getY());
+                 SlideMap map = slideMapOf(getKeyboard());
+                 mSpaceDown = key != null && key.codes[0] == ' ';
+                 mSlidable = key != null && map != null && map.hasSlides(key.codes[0]);
+                 mDragging = false;
+                 mLastDirection = SlideClassifier.NONE;
+                 mLastTier = 0;
+                 mRolling = false;
+                 mRollover.clear();
+                 mRollover.down(pointerId, key, mKeyIndex);
+         }
+         if ((act & MotionEvent.ACTION_MASK) == MotionEvent.ACTION_POINTER_DOWN
+                         && !mRolling && !mDragging) {
+                 // The stock view types the first key when a second
+                 // finger lands, and loses track of any third one.
+                 cancelKey(me);
+                 mRolling = true;
+                 RolloverTracker.Pointer first = mRollover.first();
+                 if (first != null && first.key != null && first.key.repeatable) {
+                         // Typed as it went down; it is not typed again.
+                         getOnKeyboardActionListener().onRelease(first.key.codes[0]);
+                         first.key = null;
+                 }
+                 pressKey(first);
+         }
+         if (mRolling) {
+                 return trackRollover(me);
+         }
+         mLastX = me.getX();
+         if (!mDragging && mSpaceDown && act == MotionEvent.ACTION_MOVE
+                         && mCursorDragListener != null
+                         && Math.abs(me.getX() - downX) > DRAG_START_CHARS * mCharWidth) {
+                 // The space bar is not typed once it is dragged.
+                 cancelKey(me);
+                 startCursorDrag(downX);
+         }
+         if (mDragging) {
+                 return trackCursorDrag(me);
+         }
+         if (act == MotionEvent.ACTION_MOVE) {
+                 // allow redraw only on slidable keys 
+                 //  except shift, which would have side effects 
+                 int direction = mSlides.getDirection(pointerId);
+                 int tier = mSlides.getTier(pointerId);
+                 if (mSlidable && (direction != mLastDirection || tier != mLastTier)) {
+                         mLastDirection = direction;
+                         mLastTier = tier;
+                         me.setLocation(downX, mSlides.getDownY(pointerId));
+                 } else {
+                         // cancel to prevent highliting when rolling over other keys 
+                         return true;
+                 }
+         }
 
+                 // after we return here the service will get notified, etc 
                  return super.onTouchEvent(me); 
      }    
+
+     // The index of the key keyAt last found.
+     private int mKeyIndex;
+
+     private Key keyAt(float x, float y) {
+         mKeyIndex = -1;
+         Keyboard keyboard = getKeyboard();
+         if (keyboard == null) {
+                 return null;
+         }
+         int keyX = (int) x - getPaddingLeft();
+         int keyY = (int) y - getPaddingTop();
+         List<Key> keys = keyboard.getKeys();
+         for (int i = 0; i < keys.size(); i++) {
+                 Key key = keys.get(i);
+                 if (key.isInside(keyX, keyY)) {
+                         mKeyIndex = i;
+                         return key;
+                 }
+         }
+         return null;
+     }
+
+     /**
+      * Follows the fingers while more than one has been down.  Each one
+      * types the key it went down on, slid the way it slid, and the keys
+      * are typed in the order the fingers went down.
+      */
+     private boolean trackRollover(MotionEvent me) {
+         int act = me.getAction();
+         int index = (act & MotionEvent.ACTION_POINTER_INDEX_MASK)
+                         >> MotionEvent.ACTION_POINTER_INDEX_SHIFT;
+         int id = me.getPointerId(index);
+         switch (act & MotionEvent.ACTION_MASK) {
+                 case MotionEvent.ACTION_POINTER_DOWN:
+                         Key key = keyAt(me.getX(index), me.getY(index));
+                         RolloverTracker.Pointer down = mRollover.down(id, key, mKeyIndex);
+                         if (down != null && key != null) {
+                                 pressKey(down);
+                                 getOnKeyboardActionListener().onPress(key.codes[0]);
+                         }
+                         break;
+                 case MotionEvent.ACTION_POINTER_UP:
+                 case MotionEvent.ACTION_UP:
+                         RolloverTracker.Pointer up = mRollover.up(id, mSlides.getDirection(id),
+                                         mSlides.getAxis(id), mSlides.getTier(id));
+                         releaseKey(up);
+                         typeRolledKeys();
+                         break;
+                 case MotionEvent.ACTION_CANCEL:
+                         for (RolloverTracker.Pointer p = mRollover.first(); p != null;
+                                         p = mRollover.first()) {
+                                 releaseKey(p);
+                                 mRollover.remove(p);
+                         }
+                         break;
+         }
+         if (act == MotionEvent.ACTION_UP || act == MotionEvent.ACTION_CANCEL) {
+                 mRolling = false;
+                 mRollover.clear();
+         }
+         return true;
+     }
+
+     /**
+      * Types the keys whose fingers are up and went down before any
+      * finger still down.
+      */
+     private void typeRolledKeys() {
+         OnKeyboardActionListener listener = getOnKeyboardActionListener();
+         for (RolloverTracker.Pointer p = mRollover.next(); p != null; p = mRollover.next()) {
+                 if (p.key == null) {
+                         continue;
+                 }
+                 // What the service reads back for the key being typed.
+                 mSlideDirection = p.direction;
+                 mSlideAxis = p.axis;
+                 mSlideTier = p.tier;
+                 int code = p.key.codes[0];
+                 listener.onKey(code, p.key.codes);
+                 listener.onRelease(code);
+         }
+     }
+
+     private void pressKey(RolloverTracker.Pointer p) {
+         if (p != null && p.key != null) {
+                 p.key.onPressed();
+                 invalidateKey(p.keyIndex);
+         }
+     }
+
+     private void releaseKey(RolloverTracker.Pointer p) {
+         if (p != null && p.key != null && p.key.pressed) {
+                 p.key.onReleased(false);
+                 invalidateKey(p.keyIndex);
+         }
+     }
+
+     private void startCursorDrag(float x) {
+         mDragging = true;
+         mDragX = x;
+         mCursorDragListener.onCursorDragStart();
+     }
+
+     /**
+      * Reports the drag in whole characters; the rest carries over to the
+      * next move.
+      */
+     private boolean trackCursorDrag(MotionEvent me) {
+         int act = me.getAction();
+         if (act == MotionEvent.ACTION_MOVE || act == MotionEvent.ACTION_UP) {
+                 int chars = (int) ((me.getX() - mDragX) / mCharWidth);
+                 if (chars != 0) {
+                         mDragX += chars * mCharWidth;
+                         mCursorDragListener.onCursorDrag(chars);
+                 }
+         }
+         if (act == MotionEvent.ACTION_UP || act == MotionEvent.ACTION_CANCEL) {
+                 cancelKey(me);
+                 mDragging = false;
+                 mSpaceDown = false;
+                 mCursorDragListener.onCursorDragEnd();
+         }
+         return true;
+     }
+
+     /**
+      * Makes the keyboard forget the key being pressed without typing it.
+      */
+     private void cancelKey(MotionEvent me) {
+         // One pointer, or the stock view takes the change in pointer
+         // count for a key going up.
+         MotionEvent cancel = MotionEvent.obtain(me.getDownTime(), me.getEventTime(),
+                         MotionEvent.ACTION_CANCEL, me.getX(), me.getY(), me.getMetaState());
+         super.onTouchEvent(cancel);
+         cancel.recycle();
+     }
   
     
  } 
@@ -0,0 +1,129 @@
+package hanwong.smk;
+
+import android.inputmethodservice.Keyboard.Key;
+
+/**
+ * Keeps each finger's key apart while several are down at once, as when
+ * typing fast one key goes down before the last one is let go.  Every
+ * pointer gets a record from a small pool, made once, with the key it
+ * went down on and, once it is up, the way it slid.  Keys are handed out
+ * in the order their pointers went down, so a key let go early waits for
+ * the ones pressed before it.
+ */
+final class RolloverTracker {
+
+    /** More fingers than this at once are ignored. */
+    static final int MAX_POINTERS = 5;
+
+    /** One finger on the keyboard. */
+    static final class Pointer {
+        int id;
+        Key key;
+        int keyIndex;
+        boolean up;
+        int direction;
+        int axis;
+        int tier;
+        // Order of going down; 0 while the record is free.
+        long order;
+    }
+
+    private final Pointer[] mPool = new Pointer[MAX_POINTERS];
+    private long mNextOrder = 1;
+
+    RolloverTracker() {
+        for (int i = 0; i < MAX_POINTERS; i++) {
+            mPool[i] = new Pointer();
+        }
+    }
+
+    /**
+     * A pointer went down on {@code key}, null if it missed every key.
+     * Returns its record, or null if the pool is full.
+     */
+    Pointer down(int pointerId, Key key, int keyIndex) {
+        for (Pointer p : mPool) {
+            if (p.order == 0) {
+                p.id = pointerId;
+                p.key = key;
+                p.keyIndex = keyIndex;
+                p.up = false;
+                p.direction = SlideClassifier.NONE;
+                p.axis = SlideClassifier.NONE;
+                p.tier = 0;
+                p.order = mNextOrder++;
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A pointer went up, having slid that way.  Returns its record, or
+     * null if it has none.
+     */
+    Pointer up(int pointerId, int direction, int axis, int tier) {
+        Pointer p = find(pointerId);
+        if (p != null) {
+            p.up = true;
+            p.direction = direction;
+            p.axis = axis;
+            p.tier = tier;
+        }
+        return p;
+    }
+
+    /**
+     * The record of a pointer that is down, or null.
+     */
+    Pointer find(int pointerId) {
+        for (Pointer p : mPool) {
+            if (p.order != 0 && !p.up && p.id == pointerId) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes the next key to type: the pointer that went down first, once
+     * it is up.  Returns null while there is none, or while that pointer
+     * is still down.  The record stays valid until the next call.
+     */
+    Pointer next() {
+        Pointer first = first();
+        if (first == null || !first.up) {
+            return null;
+        }
+        first.order = 0;
+        return first;
+    }
+
+    /**
+     * The record of the pointer down longest, or null if there are none.
+     */
+    Pointer first() {
+        Pointer first = null;
+        for (Pointer p : mPool) {
+            if (p.order != 0 && (first == null || p.order < first.order)) {
+                first = p;
+            }
+        }
+        return first;
+    }
+
+    void remove(Pointer p) {
+        p.order = 0;
+        p.key = null;
+    }
+
+    /**
+     * Forgets every pointer.
+     */
+    void clear() {
+        for (Pointer p : mPool) {
+            p.order = 0;
+            p.key = null;
+        }
+    }
+}
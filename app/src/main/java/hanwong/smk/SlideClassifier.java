@@ -0,0 +1,170 @@
+package hanwong.smk;
+
+import android.view.MotionEvent;
+
+/**
+ * Tells which way each pointer slid from where it went down, and how far.
+ * All state is kept per pointer id in arrays sized once, so classifying
+ * an event allocates nothing, and the samples a move event batches up in
+ * its history are classified too, in order, so that nothing depends on
+ * how often the touch screen reports.
+ *
+ * A slide counts once it is {@code threshold} pixels long, and reaches
+ * the far tier at {@code farThreshold}.  It then holds until the pointer
+ * comes back within half of the threshold, or passes the threshold in
+ * another direction, so that a pointer resting on a line does not
+ * flicker between two directions.
+ */
+final class SlideClassifier {
+
+    static final int NONE = 0;
+    static final int LEFT = 1;
+    static final int UP = 2;
+    static final int RIGHT = 3;
+    static final int DOWN = 4;
+    // Each diagonal lies between the cardinal of its number less four
+    // and the next one.
+    static final int UP_LEFT = 5;
+    static final int UP_RIGHT = 6;
+    static final int DOWN_RIGHT = 7;
+    static final int DOWN_LEFT = 8;
+    static final int DIRECTIONS = 8;
+
+    static final int NEAR = 1;
+    static final int FAR = 2;
+    static final int TIERS = 2;
+
+    // Pointer ids are small; MotionEvent hands out the lowest free one.
+    private static final int MAX_POINTER_ID = 32;
+
+    // tan(22.5 degrees): within this slope of an axis a slide is straight.
+    private static final float STRAIGHT_SLOPE = 0.41421356f;
+
+    private final float[] mDownX = new float[MAX_POINTER_ID];
+    private final float[] mDownY = new float[MAX_POINTER_ID];
+    private final int[] mDirection = new int[MAX_POINTER_ID];
+    private final int[] mAxis = new int[MAX_POINTER_ID];
+    private final int[] mTier = new int[MAX_POINTER_ID];
+    private float mThreshold;
+    private float mFarThreshold;
+
+    /**
+     * @param threshold how long a slide is, in pixels
+     * @param farThreshold how long a slide to the far tier is
+     */
+    SlideClassifier(float threshold, float farThreshold) {
+        mThreshold = threshold;
+        mFarThreshold = farThreshold;
+    }
+
+    /**
+     * Feeds one event.  Returns the id of the pointer the event is about:
+     * the one going down or up, or the first one for a move; -1 if the
+     * gesture was cancelled.
+     */
+    int onTouchEvent(MotionEvent me) {
+        int action = me.getAction();
+        int index = (action & MotionEvent.ACTION_POINTER_INDEX_MASK)
+                >> MotionEvent.ACTION_POINTER_INDEX_SHIFT;
+        switch (action & MotionEvent.ACTION_MASK) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_POINTER_DOWN:
+                down(me.getPointerId(index), me.getX(index), me.getY(index));
+                break;
+            case MotionEvent.ACTION_MOVE:
+                index = 0;
+                for (int i = 0; i < me.getPointerCount(); i++) {
+                    int id = me.getPointerId(i);
+                    for (int h = 0; h < me.getHistorySize(); h++) {
+                        classify(id, me.getHistoricalX(i, h), me.getHistoricalY(i, h));
+                    }
+                    classify(id, me.getX(i), me.getY(i));
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_POINTER_UP:
+                classify(me.getPointerId(index), me.getX(index), me.getY(index));
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                return -1;
+        }
+        return me.getPointerId(index);
+    }
+
+    private static boolean known(int pointerId) {
+        return pointerId >= 0 && pointerId < MAX_POINTER_ID;
+    }
+
+    /**
+     * Which of the eight directions the pointer slid, {@link #NONE} if it
+     * did not.
+     */
+    int getDirection(int pointerId) {
+        return known(pointerId) ? mDirection[pointerId] : NONE;
+    }
+
+    /**
+     * The cardinal direction nearest to the slide, {@link #NONE} if the
+     * pointer did not slide.
+     */
+    int getAxis(int pointerId) {
+        return known(pointerId) ? mAxis[pointerId] : NONE;
+    }
+
+    /**
+     * {@link #NEAR} or {@link #FAR}, 0 if the pointer did not slide.
+     */
+    int getTier(int pointerId) {
+        return known(pointerId) ? mTier[pointerId] : 0;
+    }
+
+    float getDownX(int pointerId) {
+        return known(pointerId) ? mDownX[pointerId] : 0;
+    }
+
+    float getDownY(int pointerId) {
+        return known(pointerId) ? mDownY[pointerId] : 0;
+    }
+
+    private void down(int pointerId, float x, float y) {
+        if (known(pointerId)) {
+            mDownX[pointerId] = x;
+            mDownY[pointerId] = y;
+            mDirection[pointerId] = NONE;
+            mAxis[pointerId] = NONE;
+            mTier[pointerId] = 0;
+        }
+    }
+
+    private void classify(int pointerId, float x, float y) {
+        if (!known(pointerId)) {
+            return;
+        }
+        float dx = x - mDownX[pointerId];
+        float dy = y - mDownY[pointerId];
+        float distance = dx * dx + dy * dy;
+        if (distance > mThreshold * mThreshold) {
+            float adx = Math.abs(dx);
+            float ady = Math.abs(dy);
+            int horizontal = dx < 0 ? LEFT : RIGHT;
+            int vertical = dy < 0 ? UP : DOWN;
+            int direction;
+            if (ady < adx * STRAIGHT_SLOPE) {
+                direction = horizontal;
+            } else if (adx < ady * STRAIGHT_SLOPE) {
+                direction = vertical;
+            } else if (dy < 0) {
+                direction = dx < 0 ? UP_LEFT : UP_RIGHT;
+            } else {
+                direction = dx < 0 ? DOWN_LEFT : DOWN_RIGHT;
+            }
+            mDirection[pointerId] = direction;
+            mAxis[pointerId] = adx > ady ? horizontal : vertical;
+            mTier[pointerId] = distance > mFarThreshold * mFarThreshold ? FAR : NEAR;
+        } else if (distance < mThreshold * mThreshold / 4) {
+            mDirection[pointerId] = NONE;
+            mAxis[pointerId] = NONE;
+            mTier[pointerId] = 0;
+        }
+    }
+}
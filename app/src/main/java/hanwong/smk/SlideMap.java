@@ -0,0 +1,103 @@
+package hanwong.smk;
+
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.content.res.XmlResourceParser;
+import android.util.Xml;
+
+import java.util.Arrays;
+
+/**
+ * The key codes a keyboard's keys type when slid, as declared in its
+ * layout XML with the {@code SlideKey} attributes:
+ *
+ * <pre>
+ * &lt;Key android:codes="109" smk:slideUp="104" smk:slideDown="110"/&gt;
+ * </pre>
+ *
+ * There is one attribute per direction and tier; {@code slideUpFar} and
+ * the like are typed by a longer slide, and default to the near one.
+ * The keyboard adds its keys while it loads and the slides end up in
+ * one dense table indexed by key code, so that finding what a key
+ * release types is a couple of array reads.
+ */
+final class SlideMap {
+
+    private static final int SLOTS = SlideClassifier.DIRECTIONS * SlideClassifier.TIERS;
+
+    // The attribute of each slot, near tier first, in direction order.
+    private static final int[] ATTRS = {
+            R.styleable.SlideKey_slideLeft, R.styleable.SlideKey_slideUp,
+            R.styleable.SlideKey_slideRight, R.styleable.SlideKey_slideDown,
+            R.styleable.SlideKey_slideUpLeft, R.styleable.SlideKey_slideUpRight,
+            R.styleable.SlideKey_slideDownRight, R.styleable.SlideKey_slideDownLeft,
+            R.styleable.SlideKey_slideLeftFar, R.styleable.SlideKey_slideUpFar,
+            R.styleable.SlideKey_slideRightFar, R.styleable.SlideKey_slideDownFar,
+            R.styleable.SlideKey_slideUpLeftFar, R.styleable.SlideKey_slideUpRightFar,
+            R.styleable.SlideKey_slideDownRightFar, R.styleable.SlideKey_slideDownLeftFar,
+    };
+
+    // SLOTS entries for each key code up to the highest with slides; 0
+    // where nothing is declared.
+    private int[] mTable = new int[0];
+
+    /**
+     * Reads the slides of the key being parsed, if it has any.
+     */
+    void add(Resources res, int code, XmlResourceParser parser) {
+        TypedArray a = res.obtainAttributes(Xml.asAttributeSet(parser), R.styleable.SlideKey);
+        try {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                int slid = a.getInt(ATTRS[slot], 0);
+                if (slid == 0 && slot >= SlideClassifier.DIRECTIONS) {
+                    slid = a.getInt(ATTRS[slot - SlideClassifier.DIRECTIONS], 0);
+                }
+                if (slid != 0 && code >= 0) {
+                    if ((code + 1) * SLOTS > mTable.length) {
+                        mTable = Arrays.copyOf(mTable, (code + 1) * SLOTS);
+                    }
+                    mTable[code * SLOTS + slot] = slid;
+                }
+            }
+        } finally {
+            a.recycle();
+        }
+    }
+
+    /**
+     * Whether the key has any slides.
+     */
+    boolean hasSlides(int code) {
+        if (code < 0 || (code + 1) * SLOTS > mTable.length) {
+            return false;
+        }
+        for (int slot = code * SLOTS; slot < (code + 1) * SLOTS; slot++) {
+            if (mTable[slot] != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The code a key types when slid, or {@code code} itself if it has no
+     * slide that way.  A diagonal the key does not declare falls back to
+     * the nearest cardinal direction.
+     *
+     * @param direction one of the eight {@link SlideClassifier} directions
+     * @param axis the cardinal direction nearest to it
+     * @param tier {@link SlideClassifier#NEAR} or {@link SlideClassifier#FAR}
+     */
+    int get(int code, int direction, int axis, int tier) {
+        if (direction == SlideClassifier.NONE || code < 0
+                || (code + 1) * SLOTS > mTable.length) {
+            return code;
+        }
+        int row = code * SLOTS + (tier - 1) * SlideClassifier.DIRECTIONS - 1;
+        int slid = mTable[row + direction];
+        if (slid == 0) {
+            slid = mTable[row + axis];
+        }
+        return slid != 0 ? slid : code;
+    }
+}
@@ -23,7 +23,11 @@ import android.content.Context;
 import android.inputmethodservice.InputMethodService;
 import android.inputmethodservice.Keyboard;
 import android.inputmethodservice.KeyboardView;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Message;
 import android.os.Vibrator;
+import android.text.TextUtils;
 import android.text.method.MetaKeyKeyListener;
 import android.util.Log;
 import android.view.KeyCharacterMap;
@@ -32,10 +36,18 @@ import android.view.View;
 import android.view.inputmethod.CompletionInfo;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputConnection;
+import android.widget.Toast;
 
 import java.util.ArrayList;
 import java.util.List;
 
+import hanwong.smk.hangul.CheonjiinComposer;
+import hanwong.smk.hangul.Composer;
+import hanwong.smk.hangul.HangulComposer;
+import hanwong.smk.hangul.Layout;
+import hanwong.smk.hangul.Layouts;
+import hanwong.smk.hangul.RomanizationComposer;
+
 
 /**
  * Example of writing an input method for a soft keyboard.  This code is
@@ -45,7 +57,8 @@ import java.util.List;
  * be fleshed out as appropriate.
  */
 public class SoftKeyboard extends InputMethodService
-        implements KeyboardView.OnKeyboardActionListener {
+        implements KeyboardView.OnKeyboardActionListener,
+        LatinKeyboardView.OnCursorDragListener {
     static final boolean DEBUG = false;
 
     /**
@@ -63,7 +76,16 @@ public class SoftKeyboard extends InputMethodService
     private CompletionInfo[] mCompletions;
 
     private StringBuilder mComposing = new StringBuilder();
+    // Latin composing text longer than the limit is committed down to its
+    // last few characters.
+    private static final int COMPOSING_LIMIT = 32;
+    private static final int COMPOSING_KEEP = 8;
+    // Holds mComposing itself as the only suggestion, so that showing it
+    // copies nothing.
+    private final ArrayList<CharSequence> mTypedSuggestion = new ArrayList<CharSequence>(1);
     private boolean mPredictionOn;
+    // The field takes Hangul: not a number, password, address and the like.
+    private boolean mHangulField;
     private boolean mCompletionOn;
     private int mLastDisplayWidth;
     private boolean mCapsLock;
@@ -71,22 +93,34 @@ public class SoftKeyboard extends InputMethodService
     private long mMetaState;
 
     private LatinKeyboard mSymbolsKeyboard;
-    private LatinKeyboard mSymbolsShiftedKeyboard;
+    private KeyboardFaces mSymbolsFaces;
     private LatinKeyboard mQwertyKeyboard;
 
     private Keyboard mHangulKeyboard; // Hangul Code
-    private Keyboard mHangulShiftedKeyboard; // Hangul Code
+    private KeyboardFaces mHangulFaces; // Hangul Code
+    private Keyboard mSejongKeyboard; // Cheonjiin
 
 
     private Keyboard mCurKeyboard;
     private String mWordSeparators;
+    private KeyClassifier mKeyClasses;
 
     //TODO:vibrator
     private Vibrator mVibrator;
     private long mVibrateDuration;
+    private long mMultiTapTimeout;
 
     private static boolean wasHangul = false;
 
+    // Hardware keys held with one of these are shortcuts, not typing.
+    private static final int HARD_KEY_COMMAND_META =
+            KeyEvent.META_ALT_ON | KeyEvent.META_CTRL_ON | KeyEvent.META_META_ON;
+
+    // Text around the cursor, kept locally so reading it costs no round trip.
+    private final TextMirror mMirror = new TextMirror();
+    // Sends our edits to the editor off the UI thread.
+    private EditorPipeline mPipeline;
+
 
     /**
      * Main initialization of the input method component.  Be sure to call
@@ -95,9 +129,18 @@ public class SoftKeyboard extends InputMethodService
     @Override
     public void onCreate() {
         super.onCreate();
+        mPipeline = new EditorPipeline();
         mWordSeparators = getResources().getString(R.string.word_separators);
+        mKeyClasses = new KeyClassifier(mWordSeparators);
 
         mVibrateDuration = getResources().getInteger(R.integer.vibrate_duration_ms);
+        mMultiTapTimeout = getResources().getInteger(R.integer.multi_tap_timeout_ms);
+    }
+
+    @Override
+    public void onDestroy() {
+        mPipeline.quit();
+        super.onDestroy();
     }
 
     /**
@@ -116,9 +159,13 @@ public class SoftKeyboard extends InputMethodService
         }
         mQwertyKeyboard = new LatinKeyboard(this, R.xml.qwerty);
         mSymbolsKeyboard = new LatinKeyboard(this, R.xml.symbols);
-        mSymbolsShiftedKeyboard = new LatinKeyboard(this, R.xml.symbols_shift);
+        mSymbolsFaces = new KeyboardFaces(mSymbolsKeyboard,
+                new LatinKeyboard(this, R.xml.symbols_shift));
         mHangulKeyboard = new HangulKeyboard(this, R.xml.hangul);
-        mHangulShiftedKeyboard = new HangulKeyboard(this, R.xml.hangul_shift);
+        mHangulFaces = new KeyboardFaces(mHangulKeyboard,
+                new HangulKeyboard(this, R.xml.hangul_shift));
+        mHangulFaces.setShifted(mHangulShiftState != 0);
+        mSejongKeyboard = new HangulKeyboard(this, R.xml.sejong);
 
     }
 
@@ -133,6 +180,7 @@ public class SoftKeyboard extends InputMethodService
         mInputView = (KeyboardView) getLayoutInflater().inflate(
                 R.layout.input, null);
         mInputView.setOnKeyboardActionListener(this);
+        ((LatinKeyboardView) mInputView).setOnCursorDragListener(this);
         mInputView.setKeyboard(mCurKeyboard);
         return mInputView;
     }
@@ -153,11 +201,12 @@ public class SoftKeyboard extends InputMethodService
     public void onStartInput(EditorInfo attribute, boolean restarting) {
         super.onStartInput(attribute, restarting);
 
-        Log.i("Hangul", "onStartInput");
+        if (DEBUG) Log.i("Hangul", "onStartInput");
 
         clearHangul();
-
-        previousCurPos = -1;
+        InputConnection ic = getEditorConnection();
+        mMirror.start(ic != null ? mPipeline.wrap(ic) : null,
+                attribute.initialSelStart, attribute.initialSelEnd);
 
         // Reset our state.  We want to do this even if restarting, because
         // the underlying state of the text editor could have changed in any way.
@@ -170,6 +219,7 @@ public class SoftKeyboard extends InputMethodService
         }
 
         mPredictionOn = false;
+        mHangulField = false;
         mCompletionOn = false;
         mCompletions = null;
 
@@ -180,14 +230,14 @@ public class SoftKeyboard extends InputMethodService
             case EditorInfo.TYPE_CLASS_DATETIME:
                 // Numbers and dates default to the symbols keyboard, with
                 // no extra features.
-                Log.i("Hangul", "Type class number");
+                if (DEBUG) Log.i("Hangul", "Type class number");
                 mCurKeyboard = mSymbolsKeyboard;
                 break;
 
             case EditorInfo.TYPE_CLASS_PHONE:
                 // Phones will also default to the symbols keyboard, though
                 // often you will want to have a dedicated phone keyboard.
-                Log.i("Hangul", "Type class phone");
+                if (DEBUG) Log.i("Hangul", "Type class phone");
                 mCurKeyboard = mSymbolsKeyboard;
                 break;
 
@@ -196,9 +246,10 @@ public class SoftKeyboard extends InputMethodService
                 // normal alphabetic keyboard, and assume that we should
                 // be doing predictive text (showing candidates as the
                 // user types).
-                Log.i("Hangul", "Type class text");
-                mCurKeyboard = wasHangul ? mHangulKeyboard: mQwertyKeyboard;
+                if (DEBUG) Log.i("Hangul", "Type class text");
+                mCurKeyboard = wasHangul ? hangulKeyboard() : mQwertyKeyboard;
                 mPredictionOn = true;
+                mHangulField = true;
 
                 // We now look for a few special variations of text that will
                 // modify our behavior.
@@ -209,6 +260,7 @@ public class SoftKeyboard extends InputMethodService
                     // when they are entering a password.
                     mCurKeyboard = mQwertyKeyboard;
                     mPredictionOn = false;
+                    mHangulField = false;
                 }
 
                 if (variation == EditorInfo.TYPE_TEXT_VARIATION_EMAIL_ADDRESS
@@ -218,6 +270,7 @@ public class SoftKeyboard extends InputMethodService
                     // or URIs.
                     mCurKeyboard = mQwertyKeyboard;
                     mPredictionOn = false;
+                    mHangulField = false;
                 }
 
                 if ((attribute.inputType & EditorInfo.TYPE_TEXT_FLAG_AUTO_COMPLETE) != 0) {
@@ -239,9 +292,11 @@ public class SoftKeyboard extends InputMethodService
             default:
                 // For all unknown input types, default to the alphabetic
                 // keyboard with no special features.
-                mCurKeyboard = wasHangul ? mHangulKeyboard: mQwertyKeyboard;
+                mCurKeyboard = wasHangul ? hangulKeyboard() : mQwertyKeyboard;
+                mHangulField = true;
                 updateShiftKeyState(attribute);
         }
+        mSymbolsFaces.setShifted(false);
 
         // Update the label on the enter key, depending on what the application
         // says it will do.
@@ -253,6 +308,31 @@ public class SoftKeyboard extends InputMethodService
         }
     }
 
+    /**
+     * The editor connection, wrapped so that every edit we make is applied
+     * to {@link #mMirror} as well and then queued on {@link #mPipeline}.
+     */
+    @Override
+    public InputConnection getCurrentInputConnection() {
+        InputConnection ic = getEditorConnection();
+        return ic != null ? mMirror.wrap(mPipeline.wrap(ic)) : null;
+    }
+
+    /**
+     * Waits until the editor has taken every edit queued so far.  For
+     * tests; the keyboard itself never waits longer than a frame.
+     */
+    void awaitEdits() {
+        mPipeline.flush(1000);
+    }
+
+    /**
+     * The connection to the editor itself, without our wrappers.
+     */
+    InputConnection getEditorConnection() {
+        return super.getCurrentInputConnection();
+    }
+
     /**
      * This is called when the user is done editing a field.  We can use
      * this to reset our state.
@@ -260,6 +340,7 @@ public class SoftKeyboard extends InputMethodService
     @Override
     public void onFinishInput() {
         super.onFinishInput();
+        endDeleteRepeat();
 
         // Clear current composing text and candidates.
         mComposing.setLength(0);
@@ -294,6 +375,8 @@ public class SoftKeyboard extends InputMethodService
     public void onUpdateSelection(int oldSelStart, int oldSelEnd,
                                   int newSelStart, int newSelEnd,
                                   int candidatesStart, int candidatesEnd) {
+        boolean ownEdit = mMirror.onUpdateSelection(oldSelStart, oldSelEnd,
+                newSelStart, newSelEnd, candidatesStart, candidatesEnd);
 
         if (oldSelStart == newSelStart && oldSelEnd == newSelEnd) {
 
@@ -306,24 +389,28 @@ public class SoftKeyboard extends InputMethodService
         super.onUpdateSelection(oldSelStart, oldSelEnd, newSelStart, newSelEnd,
                 candidatesStart, candidatesEnd);
 
-        Log.i("Hangul", "onUpdateSelection :"
-                        + Integer.toString(oldSelStart) + ":"
-                        + Integer.toString(oldSelEnd) + ":"
-                        + Integer.toString(newSelStart) + ":"
-                        + Integer.toString(newSelEnd) + ":"
-                        + Integer.toString(candidatesStart) + ":"
-                        + Integer.toString(candidatesEnd)
-        );
+        if (DEBUG) {
+            Log.i("Hangul", "onUpdateSelection :"
+                            + Integer.toString(oldSelStart) + ":"
+                            + Integer.toString(oldSelEnd) + ":"
+                            + Integer.toString(newSelStart) + ":"
+                            + Integer.toString(newSelEnd) + ":"
+                            + Integer.toString(candidatesStart) + ":"
+                            + Integer.toString(candidatesEnd)
+            );
+        }
 
         // If the current selection in the text view changes, we should
-        // clear whatever candidate text we have.
-        Keyboard current = mInputView.getKeyboard();
+        // clear whatever candidate text we have.  Without the soft keyboard
+        // the hardware keyboard types Hangul or not.
+        boolean hangul = typesHangul();
 
 
-        if (current != mHangulKeyboard && current != mHangulShiftedKeyboard) {
+        if (!hangul) {
             if (mComposing.length() > 0 && (newSelStart != candidatesEnd
                     || newSelEnd != candidatesEnd)) {
                 mComposing.setLength(0);
+                clearHangul();
                 updateCandidates();
                 InputConnection ic = getCurrentInputConnection();
                 if (ic != null) {
@@ -331,8 +418,14 @@ public class SoftKeyboard extends InputMethodService
                 }
             }
         } else {
-            if (mComposing.length() > 0 && (newSelStart != candidatesEnd
-                    || newSelEnd != candidatesEnd)) {
+            // Our own edits can be reported in several steps, with the
+            // cursor anywhere along the way; only the user's moves count.
+            if (ownEdit
+                    || (newSelStart == candidatesEnd && newSelEnd == candidatesEnd)) {
+                return;
+            }
+            boolean wasComposing = mComposing.length() > 0;
+            if (wasComposing) {
                 mComposing.setLength(0);
 //	            updateCandidates();
                 clearHangul();
@@ -341,6 +434,34 @@ public class SoftKeyboard extends InputMethodService
                     ic.finishComposingText();
                 }
             }
+            // The user put the cursor somewhere else: pick up the syllable
+            // before it so that typing continues that syllable.
+            if (newSelStart == newSelEnd) {
+                recomposeHangul(newSelStart);
+            }
+        }
+    }
+
+    /**
+     * Reopens the Hangul character before the cursor as the composing text.
+     */
+    private void recomposeHangul(int cursor) {
+        InputConnection ic = getCurrentInputConnection();
+        if (ic == null || cursor < 1) return;
+
+        char before = mMirror.charBeforeCursor();
+        if (before == 0 || !activeComposer().resume(before)) {
+            return;
+        }
+        mComposing.setLength(0);
+        mComposing.append(before);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+            ic.setComposingRegion(cursor - 1, cursor);
+        } else {
+            ic.beginBatchEdit();
+            ic.deleteSurroundingText(1, 0);
+            ic.setComposingText(mComposing, 1);
+            ic.endBatchEdit();
         }
     }
 
@@ -368,6 +489,130 @@ public class SoftKeyboard extends InputMethodService
         }
     }
 
+    /**
+     * Hangul typing on a hardware keyboard.  Keys go from their key code
+     * through the layout straight to the composer, without the soft
+     * keyboard's state, so this works with the input view hidden.  The
+     * language switch key and Shift+Space toggle between Hangul and
+     * English.  Returns false for keys the editor should handle.
+     */
+    private boolean handleHardwareKey(int keyCode, KeyEvent event) {
+        if (keyCode == KeyEvent.KEYCODE_LANGUAGE_SWITCH
+                || (keyCode == KeyEvent.KEYCODE_SPACE && event.isShiftPressed())) {
+            if (event.getRepeatCount() == 0) {
+                toggleHangul();
+            }
+            return true;
+        }
+        if (!wasHangul || !mHangulField
+                || (event.getMetaState() & HARD_KEY_COMMAND_META) != 0) {
+            return false;
+        }
+        if (isModifierKey(keyCode)) {
+            // Shift and the like type nothing themselves; the syllable
+            // stays open for the key they modify.
+            return false;
+        }
+        InputConnection ic = getCurrentInputConnection();
+        if (ic == null) {
+            return false;
+        }
+
+        if (keyCode == KeyEvent.KEYCODE_DEL) {
+            if (mHangulComposer.backspace()) {
+                applyHangulDelta(mHangulComposer);
+                return true;
+            }
+            return passToEditor();
+        }
+
+        boolean shifted = event.isShiftPressed();
+        int code;
+        if (keyCode >= KeyEvent.KEYCODE_A && keyCode <= KeyEvent.KEYCODE_Z) {
+            code = 'a' + keyCode - KeyEvent.KEYCODE_A;
+        } else {
+            code = event.getUnicodeChar(event.getMetaState());
+        }
+        if (code < ' ' || (code & KeyCharacterMap.COMBINING_ACCENT) != 0) {
+            // Enter, tab, dead keys and keys that type nothing.
+            return passToEditor();
+        }
+
+        int key = mHangulComposer.keyIndex(code, shifted);
+        if (key >= 0) {
+            if (activeComposer() != mHangulComposer) {
+                // Cheonjiin is on screen; its syllable is finished first.
+                commitTyped(ic);
+                clearHangul();
+            }
+            mHangulComposer.process(key);
+            applyHangulDelta(mHangulComposer);
+            return true;
+        }
+
+        // Anything else finishes the syllable and is typed after it.
+        char literal = mHangulComposer.getLayout().literal(code, shifted);
+        ic.beginBatchEdit();
+        commitTyped(ic);
+        clearHangul();
+        sendKey(literal != 0 ? literal : code);
+        ic.endBatchEdit();
+        return true;
+    }
+
+    /**
+     * KeyEvent.isModifierKey, which is not there before Honeycomb MR2.
+     */
+    private static boolean isModifierKey(int keyCode) {
+        switch (keyCode) {
+            case KeyEvent.KEYCODE_SHIFT_LEFT:
+            case KeyEvent.KEYCODE_SHIFT_RIGHT:
+            case KeyEvent.KEYCODE_ALT_LEFT:
+            case KeyEvent.KEYCODE_ALT_RIGHT:
+            case KeyEvent.KEYCODE_CTRL_LEFT:
+            case KeyEvent.KEYCODE_CTRL_RIGHT:
+            case KeyEvent.KEYCODE_META_LEFT:
+            case KeyEvent.KEYCODE_META_RIGHT:
+            case KeyEvent.KEYCODE_SYM:
+            case KeyEvent.KEYCODE_NUM:
+            case KeyEvent.KEYCODE_FUNCTION:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Finishes the composing text before a key goes to the editor, and
+     * waits for our queued edits so that the key lands after them.  With
+     * nothing queued that costs nothing, and it is never over a frame.
+     */
+    private boolean passToEditor() {
+        if (mComposing.length() > 0) {
+            commitTyped(getCurrentInputConnection());
+            clearHangul();
+        }
+        mPipeline.flush();
+        return false;
+    }
+
+    /**
+     * Switches between Hangul and English, on the soft keyboard too if
+     * it is showing.
+     */
+    private void toggleHangul() {
+        InputConnection ic = getCurrentInputConnection();
+        if (ic != null) {
+            commitTyped(ic);
+        }
+        clearHangul();
+        wasHangul = !wasHangul;
+        mCurKeyboard = wasHangul ? hangulKeyboard() : mQwertyKeyboard;
+        if (mInputView != null) {
+            mInputView.setKeyboard(mCurKeyboard);
+        }
+    }
+
     /**
      * This translates incoming hard key events in to edit operations on an
      * InputConnection.  It is only needed when using the
@@ -412,7 +657,11 @@ public class SoftKeyboard extends InputMethodService
      */
     @Override
     public boolean onKeyDown(int keyCode, KeyEvent event) {
-        Log.i("Hangul", "onKeyDown :" + Integer.toString(keyCode));
+        if (DEBUG) Log.i("Hangul", "onKeyDown :" + Integer.toString(keyCode));
+
+        if (PROCESS_HARD_KEYS && handleHardwareKey(keyCode, event)) {
+            return true;
+        }
 
         switch (keyCode) {
             case KeyEvent.KEYCODE_BACK:
@@ -500,6 +749,11 @@ public class SoftKeyboard extends InputMethodService
      */
     private void commitTyped(InputConnection inputConnection) {
         if (mComposing.length() > 0) {
+            if (mCheonjiinComposer.dropStroke()) {
+                // A hanging ㆍ is half a vowel, not text.
+                mComposing.setLength(0);
+                mComposing.append(mCheonjiinComposer.getComposingText());
+            }
             inputConnection.commitText(mComposing, mComposing.length());
             mComposing.setLength(0);
             updateCandidates();
@@ -516,7 +770,7 @@ public class SoftKeyboard extends InputMethodService
             int caps = 0;
             EditorInfo ei = getCurrentInputEditorInfo();
             if (ei != null && ei.inputType != EditorInfo.TYPE_NULL) {
-                caps = getCurrentInputConnection().getCursorCapsMode(attr.inputType);
+                caps = mMirror.getCursorCapsMode(attr.inputType);
             }
             mInputView.setShifted(mCapsLock || caps != 0);
         }
@@ -526,11 +780,7 @@ public class SoftKeyboard extends InputMethodService
      * Helper to determine if a given character code is alphabetic.
      */
     private boolean isAlphabet(int code) {
-        if (Character.isLetter(code)) {
-            return true;
-        } else {
-            return false;
-        }
+        return mKeyClasses.is(code, KeyClassifier.LETTER);
     }
 
     /**
@@ -563,50 +813,44 @@ public class SoftKeyboard extends InputMethodService
 
     // Implementation of KeyboardViewListener
 
-    static int pressedCode;
-    static int keyLayout;
-    static int slideThreshold;
-
     public void onKey(int primaryCode, int[] keyCodes) {
-        Log.i("Hangul", "onKey PrimaryCode[" + Integer.toString(primaryCode) + "]");
-        //TODO:
-        int Dstatus = ((LatinKeyboardView) mInputView).direction;
-
-        if (primaryCode == 109) {
-            if (Dstatus == 2) {
-                primaryCode = 104;
-            } else if (Dstatus == 4) {
-                primaryCode = 110;
-            }
-        } else if (primaryCode == 108) {
-            if (Dstatus == 1) {
-                primaryCode = 106;
-            } else if (Dstatus == 3) {
-                primaryCode = 107;
-            }
+        if (DEBUG) Log.i("Hangul", "onKey PrimaryCode[" + Integer.toString(primaryCode) + "]");
+        if (primaryCode != Keyboard.KEYCODE_DELETE) {
+            endDeleteRepeat();
+        }
+        int Dstatus = SlideClassifier.NONE;
+        // Slid keys type what the layout declares for the slide.  Hardware
+        // keys can come here before the input view is made.
+        if (mInputView != null) {
+            Dstatus = ((LatinKeyboardView) mInputView).getSlideAxis();
+            primaryCode = ((LatinKeyboardView) mInputView).slide(primaryCode);
         }
 
         if (isWordSeparator(primaryCode)) {
             // Handle separator
-            Keyboard current = mInputView.getKeyboard();
+            InputConnection ic = getCurrentInputConnection();
 
+            // Finishing the word and typing the separator is one edit.
+            ic.beginBatchEdit();
             if (mComposing.length() > 0) {
-                commitTyped(getCurrentInputConnection());
+                commitTyped(ic);
             }
 
-            if (current == mHangulKeyboard || current == mHangulShiftedKeyboard) {
-                clearHangul();
-                sendKey(primaryCode);
-            } else {
-                sendKey(primaryCode);
-            }
+            clearHangul();
+            sendKey(primaryCode);
+            ic.endBatchEdit();
             updateShiftKeyState(getCurrentInputEditorInfo());
         } else if (primaryCode == Keyboard.KEYCODE_DELETE) {
-            Keyboard current = mInputView.getKeyboard();
-            if (current == mHangulKeyboard || current == mHangulShiftedKeyboard) {
-
-                hangulSendKey(-2, HCURSOR_NONE);
-
+            if (typesHangul()) {
+                mHandler.removeMessages(MSG_MULTI_TAP);
+                Composer composer = activeComposer();
+                if (composer.backspace()) {
+                    applyHangulDelta(composer);
+                } else {
+                    deleteBeforeCursor();
+                }
+            } else if (mRomanize && mRomanizer.backspace()) {
+                applyHangulDelta(mRomanizer);
             } else {
                 handleBackspace();
             }
@@ -615,27 +859,27 @@ public class SoftKeyboard extends InputMethodService
         } else if (primaryCode == Keyboard.KEYCODE_CANCEL) {
             handleClose();
             return;
-        } else if (primaryCode == Keyboard.KEYCODE_MODE_CHANGE  //TODO:
+        } else if (primaryCode == Keyboard.KEYCODE_MODE_CHANGE
                 && mInputView != null) {
             Keyboard current = mInputView.getKeyboard();
 
             ///////////////////////////////////
-            Log.i("Hangul", "onKey Dstatus[" + Dstatus + "]");
+            if (DEBUG) Log.i("Hangul", "onKey Dstatus[" + Dstatus + "]");
 
             ////////////////////////////////////
 
 
-            if (current == mSymbolsKeyboard || current == mSymbolsShiftedKeyboard) {
+            if (current == mSymbolsKeyboard) {
                 //current = mQwertyKeyboard;
                 if (primaryCode == -2) {
                     if (Dstatus == 1) {
                         clearHangul();
-                        current = mHangulKeyboard;
+                        current = hangulKeyboard();
                     } else if (Dstatus == 3) {
                         current = mQwertyKeyboard;
                     } else if (Dstatus == 0) {
                         clearHangul();
-                        current = mHangulKeyboard;
+                        current = hangulKeyboard();
                     }
                 }
 
@@ -645,30 +889,50 @@ public class SoftKeyboard extends InputMethodService
                 if (mComposing.length() > 0) {
                     commitTyped(getCurrentInputConnection());
                 }
+                mRomanizer.reset();
 
                 if (primaryCode == -2) {
                     if (Dstatus == 1) {
                         clearHangul();
-                        current = mHangulKeyboard;
+                        current = hangulKeyboard();
+                    } else if (Dstatus == 2) {
+                        // Swipe up turns typing romanized Korean on or off.
+                        clearHangul();
+                        mRomanize = !mRomanize;
+                        Toast.makeText(this, mRomanize ? R.string.romanize_on
+                                : R.string.romanize_off, Toast.LENGTH_SHORT).show();
                     } else if (Dstatus == 3) {
                         current = mSymbolsKeyboard;
                     } else if (Dstatus == 0) {
                         clearHangul();
-                        current = mHangulKeyboard;
+                        current = hangulKeyboard();
                     }
 
                 }
                 // current = mHangulKeyboard;
             }
             // Hangul End Code
-            else if (current == mHangulKeyboard || current == mHangulShiftedKeyboard) {
+            else if (isHangulKeyboard(current)) {
                 if (mComposing.length() > 0) {
                     getCurrentInputConnection().commitText(mComposing, mComposing.length());
                     mComposing.setLength(0);
                 }
 
                 if (primaryCode == -2) {
-                    if (Dstatus == 1) {
+                    if (Dstatus == 2) {
+                        // Swipe up switches between 2-beolsik and Cheonjiin.
+                        clearHangul();
+                        mCheonjiin = current != mSejongKeyboard;
+                        current = hangulKeyboard();
+                    } else if (Dstatus == 4) {
+                        // Swipe down cycles through the 2-beolsik and 3-beolsik layouts.
+                        clearHangul();
+                        mCheonjiin = false;
+                        current = mHangulKeyboard;
+                        Layout layout = nextLayout(mHangulComposer.getLayout());
+                        mHangulComposer.setLayout(layout);
+                        Toast.makeText(this, layout.title, Toast.LENGTH_SHORT).show();
+                    } else if (Dstatus == 1) {
                         current = mQwertyKeyboard;
                     } else if (Dstatus == 3) {
                         current = mSymbolsKeyboard;
@@ -689,10 +953,10 @@ public class SoftKeyboard extends InputMethodService
             }
 
             mInputView.setKeyboard(current);
-            wasHangul = current == mHangulKeyboard;
+            wasHangul = current == mHangulKeyboard || current == mSejongKeyboard;
 
             if (current == mSymbolsKeyboard) {
-                current.setShifted(false);
+                mSymbolsFaces.setShifted(false);
             }
 
 
@@ -704,8 +968,9 @@ public class SoftKeyboard extends InputMethodService
             */
 
             // Hangul Start Code
-            Keyboard current = mInputView.getKeyboard();
-            if (current == mHangulKeyboard || current == mHangulShiftedKeyboard) {
+            // Without the input view only hardware keys come here, and
+            // those type Hangul through handleHardwareKey, not this way.
+            if (mInputView != null && isHangulKeyboard(mInputView.getKeyboard())) {
                 handleHangul(primaryCode, keyCodes);
             } else {
                 handleCharacter(primaryCode, keyCodes);
@@ -734,16 +999,17 @@ public class SoftKeyboard extends InputMethodService
     private void updateCandidates() {
         if (!mCompletionOn) {
             if (mComposing.length() > 0) {
-                ArrayList<String> list = new ArrayList<String>();
-                list.add(mComposing.toString());
-                setSuggestions(list, true, true);
+                if (mTypedSuggestion.isEmpty()) {
+                    mTypedSuggestion.add(mComposing);
+                }
+                setSuggestions(mTypedSuggestion, true, true);
             } else {
                 setSuggestions(null, false, false);
             }
         }
     }
 
-    public void setSuggestions(List<String> suggestions, boolean completions,
+    public void setSuggestions(List<? extends CharSequence> suggestions, boolean completions,
                                boolean typedWordValid) {
         if (suggestions != null && suggestions.size() > 0) {
             setCandidatesViewShown(true);
@@ -764,11 +1030,60 @@ public class SoftKeyboard extends InputMethodService
             getCurrentInputConnection().commitText("", 0);
             updateCandidates();
         } else {
-            keyDownUp(KeyEvent.KEYCODE_DEL);
+            deleteBeforeCursor();
         }
         updateShiftKeyState(getCurrentInputEditorInfo());
     }
 
+    /**
+     * Deletes before the cursor for a press of the delete key, or one of
+     * its repeats, when there is no composing text.  The first press is
+     * sent as a key event, so that it also deletes a selection and works
+     * in editors that cannot be read.  Repeats are added up and sent as
+     * one deleteSurroundingText per frame; the longer the key is held the
+     * more each repeat deletes, up to a word at a time.
+     */
+    private void deleteBeforeCursor() {
+        int repeat = mDeleteRepeats++;
+        if (repeat == 0) {
+            keyDownUp(KeyEvent.KEYCODE_DEL);
+            return;
+        }
+        int count = 0;
+        if (repeat >= DELETE_WORDS_AFTER) {
+            count = mMirror.wordBeforeCursor(mPendingDelete);
+        } else if (repeat >= DELETE_FASTER_AFTER) {
+            count = 2;
+        }
+        mPendingDelete += Math.max(count, 1);
+        if (!mHandler.hasMessages(MSG_DELETE)) {
+            mHandler.sendEmptyMessageDelayed(MSG_DELETE, FRAME_MS);
+        }
+    }
+
+    /**
+     * Sends the deletes collected from delete key repeats, if any.
+     */
+    private void flushDelete() {
+        mHandler.removeMessages(MSG_DELETE);
+        if (mPendingDelete == 0) {
+            return;
+        }
+        InputConnection ic = getCurrentInputConnection();
+        if (ic != null) {
+            ic.deleteSurroundingText(mPendingDelete, 0);
+        }
+        mPendingDelete = 0;
+    }
+
+    /**
+     * Ends a hold of the delete key.
+     */
+    private void endDeleteRepeat() {
+        flushDelete();
+        mDeleteRepeats = 0;
+    }
+
     private void handleShift() {
         if (mInputView == null) {
             return;
@@ -782,934 +1097,173 @@ public class SoftKeyboard extends InputMethodService
         }
         // Hangul Code Start
         else if (currentKeyboard == mHangulKeyboard) {
-            mHangulKeyboard.setShifted(true);
-            mInputView.setKeyboard(mHangulShiftedKeyboard);
-            mHangulShiftedKeyboard.setShifted(true);
-            mHangulShiftState = 1;
-        } else if (currentKeyboard == mHangulShiftedKeyboard) {
-            mHangulShiftedKeyboard.setShifted(false);
-            mInputView.setKeyboard(mHangulKeyboard);
-            mHangulKeyboard.setShifted(false);
-            mHangulShiftState = 0;
+            mHangulShiftState = mHangulShiftState == 0 ? 1 : 0;
+            ((LatinKeyboardView) mInputView).setFace(mHangulFaces, mHangulShiftState != 0);
         } else if (currentKeyboard == mSymbolsKeyboard) {
-            mSymbolsKeyboard.setShifted(true);
-            mInputView.setKeyboard(mSymbolsShiftedKeyboard);
-            mSymbolsShiftedKeyboard.setShifted(true);
-        } else if (currentKeyboard == mSymbolsShiftedKeyboard) {
-            mSymbolsShiftedKeyboard.setShifted(false);
-            mInputView.setKeyboard(mSymbolsKeyboard);
-            mSymbolsKeyboard.setShifted(false);
+            ((LatinKeyboardView) mInputView).setFace(mSymbolsFaces, !mSymbolsFaces.isShifted());
         }
     }
 
 // Hangul Code Start
 
-    private int isHangulKey(int stack_pos, int new_key) {
-        /*
-        MAP(0,20,1); // ㄱ,ㅅ 
-    	MAP(3,23,4); // ㄴ,ㅈ
-    	MAP(3,29,5); // ㄴ,ㅎ
-    	MAP(8,0,9); // ㄹ,ㄱ
-    	MAP(8,16,10); // ㄹ,ㅁ
-    	MAP(8,17,11); // ㄹ,ㅂ
-    	MAP(8,20,12); // ㄹ,ㅅ
-    	MAP(8,27,13); // ㄹ,ㅌ
-    	MAP(8,28,14); // ㄹ,ㅍ
-    	MAP(8,29,15); // ㄹ,ㅎ
-    	MAP(17,20,19); // ㅂ,ㅅ			
-    */
-        if (stack_pos != 2) {
-            switch (mHangulKeyStack[stack_pos]) {
-                case 0:
-                    if (new_key == 20) return 2;
-                    break;
-                case 3:
-                    if (new_key == 23) return 4;
-                    else if (new_key == 29) return 5;
-                    break;
-                case 8:
-                    if (new_key == 0) return 9;
-                    else if (new_key == 16) return 10;
-                    else if (new_key == 17) return 11;
-                    else if (new_key == 20) return 12;
-                    else if (new_key == 27) return 13;
-                    else if (new_key == 28) return 14;
-                    else if (new_key == 29) return 15;
-                    break;
-                case 17:
-                    if (new_key == 20) return 19;
-                    break;
-            }
-        } else {
-            /*
-             38, 30, 39 // ㅗ ㅏ ㅘ
-     		38, 31, 40 // ㅗ ㅐ ㅙ
-    		38, 50, 41 // ㅗ ㅣ ㅚ
-    		38, 38, 42 // ㅗ ㅗ ㅛ
-    		39, 50, 40 // ㅘ ㅣ ㅙ
-    		43, 34, 44 // ㅜ ㅓ ㅝ
-    		43, 35, 45 // ㅜ ㅔ ㅞ
-    		43, 50, 46 // ㅜ ㅣ ㅟ
-    		43, 43, 47 // ㅜ ㅜ ㅠ
-    		44, 50, 45 // ㅝ ㅣ ㅞ
-    		48, 50, 49 // ㅡ ㅣ ㅢ
-    		30, 30, 32 // ㅏ ㅏ ㅑ
-    		30, 50, 31 // ㅏ ㅣ ㅐ
-    		32, 50, 33 // ㅑ ㅣ ㅒ
-    		34, 50, 35 // ㅓ ㅣ ㅔ
-    		34, 34, 36 // ㅓ ㅓ ㅕ
-    		36, 50, 37 // ㅕ ㅣ ㅖ
-    		
-    		
-*/
-            switch (mHangulKeyStack[stack_pos]) {//TODO:
-                case 38:
-                    if (new_key == 30) return 39;
-                    else if (new_key == 31) return 40;
-                    else if (new_key == 50) return 41;
-                    else if (new_key == 38) return 42;
-                    break;
-                case 39:
-                    if (new_key == 50) return 40;
-                    break;
-                case 43:
-                    if (new_key == 34) return 44;
-                    else if (new_key == 35) return 45;
-                    else if (new_key == 50) return 46;
-                    else if (new_key == 43) return 47;
-                    break;
-                case 44:
-                    if (new_key == 50) return 45;
-                    break;
-                case 48:
-                    if (new_key == 50) return 49;
-                    break;
-                case 30:
-                    if (new_key == 30) return 32;
-                    else if (new_key == 50) return 31;
-                    break;
-                case 32:
-                    if (new_key == 50) return 33;
-                    break;
-                case 34:
-                    if (new_key == 34) return 36;
-                    else if (new_key == 50) return 35;
-                    break;
-                case 36:
-                    if (new_key == 50) return 37;
-                    break;
-
+    private int mHangulShiftState = 0;
+    private final HangulComposer mHangulComposer = new HangulComposer();
+    private final CheonjiinComposer mCheonjiinComposer = new CheonjiinComposer();
+    private boolean mCheonjiin;
+    // Letters typed on the qwerty keyboard are read as romanized Korean.
+    private final RomanizationComposer mRomanizer = new RomanizationComposer();
+    private boolean mRomanize;
+
+    private static final int MSG_MULTI_TAP = 1;
+    private static final int MSG_DELETE = 2;
+    private static final int MSG_CURSOR = 3;
+
+    // Repeated deletes and cursor drags are collected this long and sent
+    // as one edit.
+    private static final long FRAME_MS = 16;
+
+    // Holding delete: after how many repeats each one deletes two
+    // characters, then a word.
+    private static final int DELETE_FASTER_AFTER = 10;
+    private static final int DELETE_WORDS_AFTER = 25;
+    private int mDeleteRepeats;
+    private int mPendingDelete;
+    // Space bar trackpad: characters dragged and not sent yet.
+    private int mCursorDrag;
+
+    // Multi-tap timeout of the Cheonjiin keys: one message, re-posted on
+    // every tap instead of a timer per key.
+    private final Handler mHandler = new Handler() {
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.what == MSG_MULTI_TAP) {
+                mCheonjiinComposer.timeoutExpired();
+            } else if (msg.what == MSG_DELETE) {
+                flushDelete();
+            } else if (msg.what == MSG_CURSOR) {
+                flushCursorDrag();
             }
         }
-        return 0;
-    }
-
-    private static char HCURSOR_NONE = 0;
-    private static char HCURSOR_NEW = 1;
-    private static char HCURSOR_ADD = 2;
-    private static char HCURSOR_UPDATE = 3;
-    private static char HCURSOR_APPEND = 4;
-    private static char HCURSOR_UPDATE_LAST = 5;
-    private static char HCURSOR_DELETE_LAST = 6;
-    private static char HCURSOR_DELETE = 7;
-
-
-    private static int mHCursorState = HCURSOR_NONE;
-    private static char h_char[] = new char[1];
-    private int previousCurPos = -2;
-    private int previousHangulCurPos = -1;
-    private int mHangulShiftState = 0;
-    private int mHangulState = 0;
-    private static int mHangulKeyStack[] = {0, 0, 0, 0, 0, 0}; // 초,초,중,중,종,종
-    private static int mHangulJamoStack[] = {0, 0, 0};
-    final static int H_STATE_0 = 0;
-    final static int H_STATE_1 = 1;
-    final static int H_STATE_2 = 2;
-    final static int H_STATE_3 = 3;
-    final static int H_STATE_4 = 4;
-    final static int H_STATE_5 = 5;
-    final static int H_STATE_6 = 6;
-    final static char[] h_chosung_idx =
-            {0, 1, 9, 2, 12, 18, 3, 4, 5, 0, 6, 7, 9, 16, 17, 18, 6, 7, 8, 9, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18};
-    /*
-        {0, 1, 9, 2,12,18, 3,4, 5, 0, 6, 7, 9,16,17, 18,6, 7, 8, 9, 9,10,11, 12, 13,14,15,16,17,18};
-    //   ㄱ,ㄲ,ㄳ,ㄴ,ㄵ,ㄶ,ㄷ,ㄸ,ㄹ,ㄺ,ㄻ,ㄼ,ㄽ,ㄾ,ㄿ, ㅀ,ㅁ,ㅂ,ㅃ,ㅄ,ㅅ,ㅆ,ㅇ, ㅈ, ㅉ,ㅊ,ㅋ, ㅌ,ㅍ,ㅎ
-    //   ㄱ,ㄲ,   ㄴ,      ㄷ,ㄸ,ㄹ,                     ㅁ,ㅂ,ㅃ,   ㅅ,ㅆ,ㅇ, ㅈ, ㅉ,ㅊ,ㅋ, ㅌ,ㅍ,ㅎ
-    */
-    final static char[] h_jongsung_idx =
-            {0, 1, 2, 3, 4, 5, 6, 7, 0, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 0, 18, 19, 20, 21, 22, 0, 23, 24, 25, 26, 27};
-/*
-    {0, 1, 2, 3, 4, 5, 6, 7, 0,8, 9,10,11, 12,13, 14,15,16, 17,0,18, 19,20,21,22, 0 ,23,24,25,26,27};
-//   x, ㄱ,ㄲ,ㄳ,ㄴ,ㄵ,ㄶ,ㄷ,ㄸ,ㄹ,ㄺ,ㄻ,ㄼ, ㄽ,ㄾ, ㄿ,ㅀ,ㅁ, ㅂ,ㅃ,ㅄ, ㅅ,ㅆ, o,ㅈ, ㅉ,ㅊ, ㅋ,ㅌ,ㅍ,ㅎ,
-	//  x  ㄱ  ㄲ  ㄳ  ㄴ  ㄵ  ㄶ  ㄷ       ㄹ  ㄺ  ㄻ  ㄼ    ㄽ  ㄾ   ㄿ   ㅀ  ㅁ    ㅂ        ㅄ   ㅅ  ㅆ   ㅇ   ㅈ         ㅊ   ㅋ   ㅌ  ㅍ  ㅎ	
-
-	//	ㅏ,ㅐ,ㅑ,	ㅒ,ㅓ,ㅔ,	ㅕ,ㅖ,ㅗ,ㅘ,ㅙ,ㅚ,ㅛ,ㅜ,ㅝ,ㅞ,ㅟ,ㅠ,ㅡ,ㅢ,ㅣ
-*/
-
-    final static int[] e2h_map =
-            {16, 47, 25, 22, 6, 8, 29, 38, 32, 34, 30, 50, 48, 43, 31, 35, 17, 0, 3, 20, 36, 28, 23, 27, 42, 26,
-                    16, 47, 25, 22, 7, 8, 29, 38, 32, 34, 30, 50, 48, 43, 33, 37, 18, 1, 3, 21, 36, 28, 24, 27, 42, 26};
-  /*
-//	 ㅁ, ㅠ,ㅊ, ㅇ,ㄷ,ㄹ,ㅎ,ㅗ, ㅑ,ㅓ, ㅏ,ㅣ,ㅡ,ㅜ, ㅐ,ㅔ, ㅂ,ㄱ,ㄴ,ㅅ,ㅕ,ㅍ, ㅈ,ㅌ,ㅛ, ㅋ,
-	{16,47,25, 22,6, 8,29,38, 32,34, 30,50,48,43,31,35, 17,0, 3, 20,36,28, 23,27,42,26,
-//	 ㅁ, ㅠ,ㅊ, ㅇ,ㄸ,ㄹ,ㅎ,ㅗ, ㅑ,ㅓ, ㅏ,ㅣ,ㅡ,ㅜ, ㅒ,ㅖ, ㅃ,ㄲ,ㄴ,ㅆ,ㅕ,ㅍ, ㅉ,ㅌ,ㅛ, ㅋ
-	 16,47,25, 22,7, 8,29,38, 32,34, 30,50,48,43,33,37, 18,1, 3, 21,36,28, 24,27,42,26}; 
-   */ 
-/*
-	final static char[] h_key_type =
-//		0						     1							  2	
-//		0, 1, 2, 3, 4, 5, 6, 7,8, 9, 0, 1, 2, 3, 4, 5, 6,7, 8, 9, 0, 1, 2, 3, 4,5, 6,7, 8, 9,
-//		ㄱ,ㄲ,ㄳ,ㄴ,ㄵ,ㄶ,ㄷ,ㄸ,ㄹ,ㄺ,ㄻ,ㄼ,ㄽ,ㄾ,ㄿ,ㅀ,ㅁ,ㅂ,ㅃ,ㅄ,ㅅ,ㅆ, o,ㅈ,ㅉ,ㅊ,ㅋ,ㅌ,ㅍ,ㅎ,
-	    { };
-//		3						     4		
-//		0, 1, 2, 3, 4, 5,6, 7, 8, 9, 0, 1, 2, 3,4, 5, 6, 7, 8, 9, 0		
-//		ㅏ,ㅐ,ㅑ,ㅒ,ㅓ,ㅔ,ㅕ,ㅖ,ㅗ,ㅘ,ㅙ,ㅚ,ㅛ,ㅜ,ㅝ,ㅞ,ㅟ,ㅠ,ㅡ,ㅢ,ㅣ
-
-	0x3131,ㄱ
-	0x314F,ㅏ 
-*/
-
+    };
 
     private void clearHangul() {
-        mHCursorState = HCURSOR_NONE;
-        mHangulState = 0;
-        previousHangulCurPos = -1;
-        mHangulKeyStack[0] = 0;
-        mHangulKeyStack[1] = 0;
-        mHangulKeyStack[2] = 0;
-        mHangulKeyStack[3] = 0;
-        mHangulKeyStack[4] = 0;
-        mHangulKeyStack[5] = 0;
-        mHangulJamoStack[0] = 0;
-        mHangulJamoStack[1] = 0;
-        mHangulJamoStack[2] = 0;
-        return;
+        mHandler.removeMessages(MSG_MULTI_TAP);
+        mHangulComposer.reset();
+        mCheonjiinComposer.reset();
+        mRomanizer.reset();
     }
 
-    private void hangulSendKey(int newHangulChar, int hCursor) {
-
-        if (hCursor == HCURSOR_NEW) {
-            Log.i("Hangul", "HCURSOR_NEW");
+    private boolean isHangulKeyboard(Keyboard keyboard) {
+        return keyboard == mHangulKeyboard || keyboard == mSejongKeyboard;
+    }
 
-            mComposing.append((char) newHangulChar);
-            getCurrentInputConnection().setComposingText(mComposing, 1);
-            mHCursorState = HCURSOR_NEW;
-        } else if (hCursor == HCURSOR_ADD) {
-            mHCursorState = HCURSOR_ADD;
-            Log.i("Hangul", "HCURSOR_ADD");
-            if (mComposing.length() > 0) {
-                mComposing.setLength(0);
-                getCurrentInputConnection().finishComposingText();
-            }
+    /**
+     * The Hangul keyboard the user last chose, 2-beolsik or Cheonjiin.
+     */
+    private Keyboard hangulKeyboard() {
+        return mCheonjiin ? mSejongKeyboard : mHangulKeyboard;
+    }
 
-            mComposing.append((char) newHangulChar);
-            getCurrentInputConnection().setComposingText(mComposing, 1);
-        } else if (hCursor == HCURSOR_UPDATE) {
-            Log.i("Hangul", "HCURSOR_UPDATE");
-            mComposing.setCharAt(0, (char) newHangulChar);
-            getCurrentInputConnection().setComposingText(mComposing, 1);
-            mHCursorState = HCURSOR_UPDATE;
-        } else if (hCursor == HCURSOR_APPEND) {
-            Log.i("Hangul", "HCURSOR_APPEND");
-            mComposing.append((char) newHangulChar);
-            getCurrentInputConnection().setComposingText(mComposing, 1);
-            mHCursorState = HCURSOR_APPEND;
-        } else if (hCursor == HCURSOR_NONE) {
-            if (newHangulChar == -1) {
-                Log.i("Hangul", "HCURSOR_NONE [DEL -1]");
-                keyDownUp(KeyEvent.KEYCODE_DEL);
-                clearHangul();
-            } else if (newHangulChar == -2) {
-                int hangulKeyIdx;
-                int cho_idx, jung_idx, jong_idx;
-
-                Log.i("Hangul", "HCURSOR_NONE [DEL -2]");
-
-                switch (mHangulState) {
-                    case H_STATE_0:
-                        keyDownUp(KeyEvent.KEYCODE_DEL);
-                        break;
-                    case H_STATE_1: // 초성
-//					keyDownUp(KeyEvent.KEYCODE_DEL);
-                        mComposing.setLength(0);
-                        getCurrentInputConnection().commitText("", 0);
-                        clearHangul();
-                        mHangulState = H_STATE_0;
-                        break;
-                    case H_STATE_2: // 초성(복자음)
-                        newHangulChar = 0x3131 + mHangulKeyStack[0];
-                        hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-                        mHangulKeyStack[1] = 0;
-                        mHangulJamoStack[0] = mHangulKeyStack[0];
-                        mHangulState = H_STATE_1; // goto 초성
-                        break;
-                    case H_STATE_3: // 중성(단모음,복모음)
-                        if (mHangulKeyStack[3] == 0) {
-//						keyDownUp(KeyEvent.KEYCODE_DEL);
-                            mComposing.setLength(0);
-                            getCurrentInputConnection().commitText("", 0);
-                            clearHangul();
-                            mHangulState = H_STATE_0;
-                        } else {
-                            mHangulKeyStack[3] = 0;
-                            newHangulChar = 0x314F + (mHangulKeyStack[2] - 30);
-                            hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-                            mHangulJamoStack[1] = mHangulKeyStack[2];
-                            mHangulState = H_STATE_3; // goto 중성
-                        }
-                        break;
-                    case H_STATE_4: // 초성,중성(단모음,복모음)
-                        if (mHangulKeyStack[3] == 0) {
-                            mHangulKeyStack[2] = 0;
-                            mHangulJamoStack[1] = 0;
-                            newHangulChar = 0x3131 + mHangulJamoStack[0];
-                            hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-                            mHangulState = H_STATE_1; // goto 초성
-                        } else {
-                            mHangulJamoStack[1] = mHangulKeyStack[2];
-                            mHangulKeyStack[3] = 0;
-                            cho_idx = h_chosung_idx[mHangulJamoStack[0]];
-                            jung_idx = mHangulJamoStack[1] - 30;
-                            jong_idx = h_jongsung_idx[mHangulJamoStack[2]];
-                            newHangulChar = 0xAC00 + ((cho_idx * 21 * 28) + (jung_idx * 28) + jong_idx);
-                            hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-                        }
-                        break;
-                    case H_STATE_5:    // 초성,중성,종성
-                        mHangulJamoStack[2] = 0;
-                        mHangulKeyStack[4] = 0;
-                        cho_idx = h_chosung_idx[mHangulJamoStack[0]];
-                        jung_idx = mHangulJamoStack[1] - 30;
-                        jong_idx = h_jongsung_idx[mHangulJamoStack[2]];
-                        newHangulChar = 0xAC00 + ((cho_idx * 21 * 28) + (jung_idx * 28) + jong_idx);
-                        hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-                        mHangulState = H_STATE_4;
-                        break;
-                    case H_STATE_6:
-                        mHangulKeyStack[5] = 0;
-                        mHangulJamoStack[2] = mHangulKeyStack[4];
-                        cho_idx = h_chosung_idx[mHangulJamoStack[0]];
-                        jung_idx = mHangulJamoStack[1] - 30;
-                        jong_idx = h_jongsung_idx[mHangulJamoStack[2] + 1];
-                        ;
-                        newHangulChar = 0xAC00 + ((cho_idx * 21 * 28) + (jung_idx * 28) + jong_idx);
-                        hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-                        mHangulState = H_STATE_5;
-                        break;
-                }
-            } else if (newHangulChar == -3) {
-                Log.i("Hangul", "HCURSOR_NONE [DEL -3]");
-                final int length = mComposing.length();
-                if (length > 1) {
-                    mComposing.delete(length - 1, length);
-                }
+    private static Layout nextLayout(Layout layout) {
+        Layout[] all = Layouts.ALL;
+        for (int i = 0; i < all.length; i++) {
+            if (all[i] == layout) {
+                return all[(i + 1) % all.length];
             }
-
         }
+        return all[0];
     }
 
-    private int prevJaumKeyCode = 0;
-
-
-    final private char ko_first_state[] = {
-            1, 3, 4, 6, 7, 8, 10, 12, 13,    // 0
-            16, 3, 4, 6, 7, 8, 10, 12, 13,    // 1
-            1, 3, 4, 6, 7, 8, 10, 12, 13,    // 2
-            1, 3, 4, 6, 7, 8, 10, 12, 13,    // 3
-            1, 3, 17, 6, 7, 8, 10, 12, 13,    // 4
-            1, 3, 4, 6, 7, 8, 10, 12, 13,    // 5
-            1, 3, 4, 6, 7, 8, 10, 12, 13,    // 6
-            1, 3, 4, 6, 7, 8, 10, 12, 13,    // 7
-            1, 3, 4, 6, 7, 18, 10, 12, 13,    // 8
-            1, 3, 4, 6, 7, 8, 10, 12, 13,    // 9
-            1, 3, 4, 6, 7, 8, 11, 12, 13,    // 10
-            1, 3, 4, 6, 7, 8, 10, 12, 13,    // 11
-            1, 3, 4, 6, 7, 8, 10, 19, 13,    // 12
-            1, 3, 4, 6, 7, 8, 10, 12, 15,    // 13
-            1, 3, 4, 6, 7, 8, 10, 12, 13,    // 14
-            1, 3, 4, 6, 7, 8, 10, 12, 14,    // 15
-            2, 3, 4, 6, 7, 8, 10, 12, 13,    // 16
-            1, 3, 5, 6, 7, 8, 10, 12, 13,    // 17
-            1, 3, 4, 6, 7, 9, 10, 12, 13,    // 18
-            1, 3, 4, 6, 7, 8, 10, 12, 13,    // 19
-    };
-
-    final private char ko_middle_state[] = {
-//		 	0			   1			     2		   	3			    4			    5		    	6			    7				
-            23, 1, 21, 7, 2, 11, 9, 1, 15, 4, 5, 0, 0, 0, 0, 6, 3, 0, 0, 0, 0, 8, 0, 0,
-//		 	8			    9		     	10		   	11			  12		   	13			  14		   	15
-            0, 0, 0, 10, 0, 0, 0, 0, 0, 14, 0, 0, 13, 0, 0, 0, 0, 0, 0, 12, 0, 0, 0, 0,
-//			16			  17			  18			  19			  20			  21			  22		  	23
-            19, 20, 0, 18, 0, 0, 0, 0, 0, 0, 0, 0, 17, 16, 0, 22, 16, 0, 0, 0, 0, 0, 3, 0
-    };
-
-    final private char ko_last_state[] = {
-            1, 4, 7, 8, 16, 17, 19, 21, 22,    // 0
-            24, 0, 0, 0, 0, 0, 3, 0, 0,        // 1
-            1, 0, 0, 0, 0, 0, 0, 0, 0,        // 2
-            0, 0, 0, 0, 0, 0, 31, 0, 0,        // 3
-            0, 0, 0, 0, 0, 0, 0, 32, 5,        // 4
-            0, 0, 0, 0, 0, 0, 0, 0, 33,        // 5
-            0, 0, 0, 0, 0, 0, 0, 0, 0,        // 6
-            0, 0, 25, 0, 0, 0, 0, 0, 0,        // 7
-            9, 0, 44, 0, 0, 11, 12, 43, 0,        // 8
-            36, 0, 0, 0, 0, 0, 0, 0, 0,        // 9
-            0, 0, 0, 0, 0, 0, 0, 0, 0,        // 10
-            0, 0, 0, 0, 0, 14, 0, 0, 0,        // 11
-            0, 0, 0, 0, 0, 0, 39, 0, 0,        // 12
-            0, 0, 45, 0, 0, 0, 0, 0, 0,        // 13
-            0, 0, 0, 0, 0, 38, 0, 0, 0,        // 14
-            0, 0, 0, 0, 0, 0, 0, 43, 0,        // 15
-            0, 0, 0, 0, 0, 0, 0, 0, 0,        // 16
-            0, 0, 0, 0, 0, 26, 18, 0, 0,        // 17
-            0, 0, 0, 0, 0, 0, 41, 0, 0,        // 18
-            0, 0, 0, 0, 0, 0, 20, 0, 0,        // 19
-            0, 0, 0, 0, 0, 0, 19, 0, 0,        // 20
-            0, 0, 0, 0, 0, 0, 0, 0, 0,        // 21
-            0, 0, 0, 0, 0, 0, 0, 0, 23,        // 22
-            0, 0, 0, 0, 0, 0, 0, 0, 42,        // 23
-            2, 0, 0, 0, 0, 0, 0, 0, 0,        // 24
-            0, 0, 28, 0, 0, 0, 0, 0, 0,        // 25
-            0, 0, 0, 0, 0, 29, 0, 0, 0,        // 26
-            0, 0, 0, 0, 0, 0, 0, 0, 0,        // 27
-            0, 0, 7, 0, 0, 0, 0, 0, 0,        // 28
-            0, 0, 0, 0, 0, 17, 0, 0, 0,        // 29
-            0, 0, 0, 0, 0, 0, 0, 0, 0,        // 30
-            0, 0, 0, 0, 0, 0, 3, 0, 0,        // 31
-            0, 0, 0, 0, 0, 0, 0, 35, 0,        // 32
-            0, 0, 0, 0, 0, 0, 0, 0, 34,        // 33
-            0, 0, 0, 0, 0, 0, 0, 0, 5,        // 34
-            0, 0, 0, 0, 0, 0, 0, 32, 0,        // 35
-            37, 0, 0, 0, 0, 0, 0, 0, 0,        // 36
-            9, 0, 0, 0, 0, 0, 0, 0, 0,        // 37
-            0, 0, 0, 0, 0, 11, 0, 0, 0,        // 38
-            0, 0, 0, 0, 0, 0, 12, 0, 0,        // 39
-            0, 0, 0, 0, 0, 0, 0, 0, 0,        // 40
-            0, 0, 0, 0, 0, 0, 18, 0, 0,        // 41
-            0, 0, 0, 0, 0, 0, 0, 0, 22,        // 42
-            0, 0, 0, 0, 0, 0, 0, 15, 0,        // 43
-            0, 0, 13, 0, 0, 0, 0, 0, 0,        // 44
-            0, 0, 44, 0, 0, 0, 0, 0, 0,        // 45
-    };
-
-    final private char ko_jong_m_split[] = {
-            0, 1, 0, 2, 1, 10, 0, 3, 4, 13,
-            4, 19, 0, 4, 0, 6, 8, 1, 8, 7,
-            8, 8, 8, 10, 8, 17, 8, 18, 8, 19,
-            0, 7, 0, 8, 17, 10, 0, 10, 0, 11,
-            0, 12, 0, 13, 0, 15, 0, 16, 0, 17,
-            0, 18, 0, 19
-    };
-
-    final private char ko_jong_l_split[] = {
-            0, 5, 0, 9,
-            1, 19, 1, 11,
-            4, 12, 4, 15, 4, 14, 4, 19,
-            8, 16, 8, 2, 8, 9, 8, 11,
-            17, 19, 17, 11,
-            0, 14,
-            8, 12, 8, 4, 8, 5
-    };
-
-    final private char jongsung_28idx[] = {
-            0, 0, 1, 1, 4, 4, 4, 8, 8, 8, 8, 17, 17, 0, 8, 8, 8
-    };
-
-    final static char KO_S_0000 = 0;
-    final static char KO_S_0100 = 1;
-    final static char KO_S_1000 = 2;
-    final static char KO_S_1100 = 3;
-    final static char KO_S_1110 = 4;
-    final static char KO_S_1111 = 5;
-
-    private int prev_key = -1;
-    private char ko_state_idx = KO_S_0000;
-    private char ko_state_first_idx;
-    private char ko_state_middle_idx;
-    private char ko_state_last_idx;
-    private char ko_state_next_idx;
-
-
-    final private int key_idx[] =
-            {0, 1, 2, 3, 4, 5, 6, 7, 8, 0, 1, 2,};
-    // ㄱ,ㄴ,ㄷ,ㄹ,ㅁ,ㅂ,ㅅ, ㅇ,ㅈ,ㅣ,ㆍ,ㅡ,
-
-
-    final private char chosung_code[] = {
-            0, 1, 3, 6, 7, 8, 16, 17, 18, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29
-    };
-    final private char jongsung_code[] = {
-            0, 1, 2, 3, 4, 5, 6,  // ㄸ
-            8, 9, 10, 11, 12, 13, 14, 15, 16, 17, // ㅃ
-            19, 20, 21, 22, 23, // ㅉ
-            25, 26, 27, 28, 29
-    };
-
-    final private char jungsung_stack[] = {
-            // 1  2 3  4  5  6  7 8  9  10 11 12 13 14 15 16 17 18 19 20 21 22 23
-            // . .. ㅏ,ㅐ,ㅑ,ㅒ,ㅓ,ㅔ,ㅕ,ㅖ,ㅗ,ㅘ,ㅙ, ㅚ,ㅛ,ㅜ,ㅝ,ㅞ,ㅟ,ㅠ,ㅡ,ㅢ, ㅣ
-            0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 11, 11, 11, 0, 0, 16, 16, 16, 0, 0, 21, 0
-    };
-
-
-    private char getJungsungCode(char jungsung_idx) {
-        Log.i("Hangul", "getJungsungCode[" + Integer.toString(jungsung_idx) + "]");
-
-        switch (jungsung_idx) {
-            case 1:
-                return 0xB7; // .
-            // return 0x318D; .
-            case 2:
-                return 0x3A; // :
-            // return 0x2025; // ..
-            default:
-                return (char) (0x314F + jungsung_idx - 3);
-        }
+    /**
+     * Whether keys type Hangul: the keyboard on screen decides, or the
+     * last language picked when there is no input view yet.
+     */
+    private boolean typesHangul() {
+        return mInputView != null ? isHangulKeyboard(mInputView.getKeyboard()) : wasHangul;
     }
 
+    private Composer activeComposer() {
+        return mInputView != null && mInputView.getKeyboard() == mSejongKeyboard
+                ? mCheonjiinComposer : mHangulComposer;
+    }
 
-    private void handleHangul(int primaryCode, int[] keyCodes) {
+    /**
+     * Pushes the result of the last composer step to the editor in one
+     * batch edit: take back what backspace reopened, commit what the
+     * composer finished, then show the new composing text.  Calls that
+     * would change nothing are left out; each one is a round trip to the
+     * editor, and heavy editors lay out again after every one of them.
+     */
+    private void applyHangulDelta(Composer composer) {
+        InputConnection ic = getCurrentInputConnection();
+        if (ic == null) return;
 
-        int hangulKeyIdx = -1;
-        int newHangulChar;
-        int cho_idx, jung_idx, jong_idx;
-        int hangulChar = 0;
-/*        
-        if (mHangulCursorMoved == 1) {
-        	clearHangul();
-        	Log.i("Hangul", "clear Hangul at handleHangul by mHangulCursorMoved");
-        	mHangulCursorMoved = 0;
+        int deleteBefore = composer.getDeleteBefore();
+        CharSequence commit = composer.getCommitText();
+        CharSequence composing = composer.getComposingText();
+        if (deleteBefore == 0 && commit.length() == 0
+                && TextUtils.equals(mComposing, composing)) {
+            return;
         }
-*/
-        // Log.i("Hangul", "PrimaryCode[" + Integer.toString(primaryCode)+"]");
 
-        if (primaryCode >= 0x61 && primaryCode <= 0x7A) {
-            //            Log.i("SoftKey", "handleHangul - hancode");
-
-            if (mHangulShiftState == 0) {
-                hangulKeyIdx = e2h_map[primaryCode - 0x61];
-            } else {
-                hangulKeyIdx = e2h_map[primaryCode - 0x61 + 26];
-//                Keyboard currentKeyboard = mInputView.getKeyboard();
-                mHangulShiftedKeyboard.setShifted(false);
-                mInputView.setKeyboard(mHangulKeyboard);
-                mHangulKeyboard.setShifted(false);
-                mHangulShiftState = 0;
+        boolean hasComposingText = mComposing.length() > 0;
+        ic.beginBatchEdit();
+        if (deleteBefore > 0) {
+            // Backspace went back into the previous syllable: drop the
+            // composing text, then the committed text before it.
+            if (hasComposingText) {
+                ic.commitText("", 1);
+                hasComposingText = false;
             }
-            hangulChar = 1;
-        } else if (primaryCode >= 0x41 && primaryCode <= 0x5A) {
-            hangulKeyIdx = e2h_map[primaryCode - 0x41 + 26];
-            hangulChar = 1;
+            ic.deleteSurroundingText(deleteBefore, 0);
         }
-        /*
-        else  if (primaryCode >= 0x3131 && primaryCode <= 0x3163) {
-        	hangulKeyIdx = primaryCode - 0x3131;
-        	hangulChar = 1;
+        if (commit.length() > 0) {
+            // Takes the place of the composing text, which it finishes.
+            ic.commitText(commit, 1);
+            hasComposingText = false;
         }
-        */
-        else {
-            hangulChar = 0;
+        mComposing.setLength(0);
+        mComposing.append(composing);
+        if (mComposing.length() > 0) {
+            ic.setComposingText(mComposing, 1);
+        } else if (hasComposingText) {
+            ic.commitText("", 1);
         }
+        ic.endBatchEdit();
+    }
 
+    private void handleHangul(int primaryCode, int[] keyCodes) {
+        if (mInputView.getKeyboard() == mSejongKeyboard) {
+            if (CheonjiinComposer.isKey(primaryCode)) {
+                mCheonjiinComposer.process(primaryCode);
+                applyHangulDelta(mCheonjiinComposer);
+                mHandler.removeMessages(MSG_MULTI_TAP);
+                if (mCheonjiinComposer.isTapPending()) {
+                    mHandler.sendEmptyMessageDelayed(MSG_MULTI_TAP, mMultiTapTimeout);
+                }
+            } else {
+                clearHangul();
+                sendKey(primaryCode);
+            }
+            return;
+        }
 
-        if (hangulChar == 1) {
-
-            switch (mHangulState) {
-
-                case H_STATE_0: // Hangul Clear State
-                    Log.d("SoftKey", "HAN_STATE 0");
-                    if (hangulKeyIdx < 30) { // if 자음
-                        newHangulChar = 0x3131 + hangulKeyIdx;
-                        hangulSendKey(newHangulChar, HCURSOR_NEW);
-                        mHangulKeyStack[0] = hangulKeyIdx;
-                        mHangulJamoStack[0] = hangulKeyIdx;
-
-                        Log.d("SoftKey", "--- Goto HAN_STATE 1");
-                        mHangulState = H_STATE_1; // goto 초성
-                    } else { // if 모음
-                        newHangulChar = 0x314F + (hangulKeyIdx - 30);
-                        hangulSendKey(newHangulChar, HCURSOR_NEW);
-                        mHangulKeyStack[2] = hangulKeyIdx;
-                        mHangulJamoStack[1] = hangulKeyIdx;
-
-                        Log.d("SoftKey", "--- Goto HAN_STATE 3");
-                        mHangulState = H_STATE_3; // goto 중성
-                    }
-                    break;
-
-                case H_STATE_1: // 초성
-                    Log.d("SoftKey", "HAN_STATE 1");
-                    if (hangulKeyIdx < 30) { // if 자음
-                        int newHangulKeyIdx = isHangulKey(0, hangulKeyIdx);
-                        if (newHangulKeyIdx > 0) { // if 복자음
-                            newHangulChar = 0x3131 + newHangulKeyIdx;
-                            mHangulKeyStack[1] = hangulKeyIdx;
-                            mHangulJamoStack[0] = newHangulKeyIdx;
-//	                    hangulSendKey(-1);
-                            hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-
-                            Log.d("SoftKey", "--- Goto HAN_STATE 2");
-                            mHangulState = H_STATE_2; // goto 초성(복자음)
-                        } else { // if 자음
-
-                            // cursor error trick start
-                            newHangulChar = 0x3131 + mHangulJamoStack[0];
-                            hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-                            // trick end
-
-                            newHangulChar = 0x3131 + hangulKeyIdx;
-                            hangulSendKey(newHangulChar, HCURSOR_ADD);
-                            mHangulKeyStack[0] = hangulKeyIdx;
-                            mHangulJamoStack[0] = hangulKeyIdx;
-
-                            Log.d("SoftKey", "--- Goto HAN_STATE 1");
-                            mHangulState = H_STATE_1; // goto 초성
-                        }
-                    } else { // if 모음
-                        mHangulKeyStack[2] = hangulKeyIdx;
-                        mHangulJamoStack[1] = hangulKeyIdx;
-//	                hangulSendKey(-1);
-                        cho_idx = h_chosung_idx[mHangulJamoStack[0]];
-                        jung_idx = mHangulJamoStack[1] - 30;
-                        jong_idx = h_jongsung_idx[mHangulJamoStack[2]];
-                        newHangulChar = 0xAC00 + ((cho_idx * 21 * 28) + (jung_idx * 28) + jong_idx);
-                        hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-
-                        Log.d("SoftKey", "--- Goto HAN_STATE 4");
-                        mHangulState = H_STATE_4; // goto 초성,중성
-                    }
-                    break;
-
-                case H_STATE_2: // 초성(복자음)
-                    Log.d("SoftKey", "HAN_STATE 2");
-                    if (hangulKeyIdx < 30) { // if 자음
-
-                        // cursor error trick start
-                        newHangulChar = 0x3131 + mHangulJamoStack[0];
-                        hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-                        // trick end
-
-
-                        mHangulKeyStack[0] = hangulKeyIdx;
-                        mHangulJamoStack[0] = hangulKeyIdx;
-                        mHangulJamoStack[1] = 0;
-                        newHangulChar = 0x3131 + hangulKeyIdx;
-                        hangulSendKey(newHangulChar, HCURSOR_ADD);
-
-                        Log.d("SoftKey", "--- Goto HAN_STATE 1");
-                        mHangulState = H_STATE_1; // goto 초성
-                    } else { // if 모음
-                        newHangulChar = 0x3131 + mHangulKeyStack[0];
-                        mHangulKeyStack[0] = mHangulKeyStack[1];
-                        mHangulJamoStack[0] = mHangulKeyStack[0];
-                        mHangulKeyStack[1] = 0;
-//	                hangulSendKey(-1);
-                        hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-
-                        mHangulKeyStack[2] = hangulKeyIdx;
-                        mHangulJamoStack[1] = mHangulKeyStack[2];
-                        cho_idx = h_chosung_idx[mHangulJamoStack[0]];
-                        jung_idx = mHangulJamoStack[1] - 30;
-                        jong_idx = 0;
-
-                        newHangulChar = 0xAC00 + ((cho_idx * 21 * 28) + (jung_idx * 28) + jong_idx);
-                        hangulSendKey(newHangulChar, HCURSOR_ADD);
-
-                        Log.d("SoftKey", "--- Goto HAN_STATE 4");
-                        mHangulState = H_STATE_4; // goto 초성,중성
-                    }
-                    break;
-
-                case H_STATE_3: // 중성(단모음,복모음)
-                    Log.d("SoftKey", "HAN_STATE 3");
-                    if (hangulKeyIdx < 30) { // 자음
-
-                        // cursor error trick start
-                        newHangulChar = 0x314F + (mHangulJamoStack[1] - 30);
-                        hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-                        // trick end
-
-                        newHangulChar = 0x3131 + hangulKeyIdx;
-                        hangulSendKey(newHangulChar, HCURSOR_ADD);
-                        mHangulKeyStack[0] = hangulKeyIdx;
-                        mHangulJamoStack[0] = hangulKeyIdx;
-                        mHangulJamoStack[1] = 0;
-
-                        Log.d("SoftKey", "--- Goto HAN_STATE 1");
-                        mHangulState = H_STATE_1; // goto 초성
-                    } else { // 모음
-                        if (mHangulKeyStack[3] == 0) {
-                            int newHangulKeyIdx = isHangulKey(2, hangulKeyIdx);
-                            if (newHangulKeyIdx > 0) { // 복모음
-                                //	                	hangulSendKey(-1);
-                                newHangulChar = 0x314F + (newHangulKeyIdx - 30);
-                                hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-                                //mHangulKeyStack[3] = hangulKeyIdx;
-                                //mHangulJamoStack[1] = newHangulKeyIdx;
-                                mHangulKeyStack[2] = newHangulKeyIdx;//TODO:
-                                mHangulJamoStack[1] = newHangulKeyIdx;
-
-                            } else { // 모음
-
-                                // cursor error trick start
-                                newHangulChar = 0x314F + (mHangulJamoStack[1] - 30);
-                                hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-                                // trick end
-
-                                newHangulChar = 0x314F + (hangulKeyIdx - 30);
-                                hangulSendKey(newHangulChar, HCURSOR_ADD);
-                                mHangulKeyStack[2] = hangulKeyIdx;
-                                mHangulJamoStack[1] = hangulKeyIdx;
-                            }
-                        } else {
-
-                            // cursor error trick start
-                            newHangulChar = 0x314F + (mHangulJamoStack[1] - 30);
-                            hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-                            // trick end
-
-                            newHangulChar = 0x314F + (hangulKeyIdx - 30);
-                            hangulSendKey(newHangulChar, HCURSOR_ADD);
-                            mHangulKeyStack[2] = hangulKeyIdx;
-                            mHangulJamoStack[1] = hangulKeyIdx;
-                            mHangulKeyStack[3] = 0;
-                        }
-
-                        Log.d("SoftKey", "--- Goto HAN_STATE 3");
-                        mHangulState = H_STATE_3;
-                    }
-                    break;
-                case H_STATE_4: // 초성,중성(단모음,복모음)
-                    Log.d("SoftKey", "HAN_STATE 4");
-                    if (hangulKeyIdx < 30) { // if 자음
-                        mHangulKeyStack[4] = hangulKeyIdx;
-                        mHangulJamoStack[2] = hangulKeyIdx;
-//	                hangulSendKey(-1);
-                        cho_idx = h_chosung_idx[mHangulJamoStack[0]];
-                        jung_idx = mHangulJamoStack[1] - 30;
-                        jong_idx = h_jongsung_idx[mHangulJamoStack[2] + 1];
-                        newHangulChar = 0xAC00 + ((cho_idx * 21 * 28) + (jung_idx * 28) + jong_idx);
-                        hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-                        if (jong_idx == 0) { // if 종성 is not valid ex, 라 + ㅉ
-                            mHangulKeyStack[0] = hangulKeyIdx;
-                            mHangulKeyStack[1] = 0;
-                            mHangulKeyStack[2] = 0;
-                            mHangulKeyStack[3] = 0;
-                            mHangulKeyStack[4] = 0;
-                            mHangulJamoStack[0] = hangulKeyIdx;
-                            mHangulJamoStack[1] = 0;
-                            mHangulJamoStack[2] = 0;
-                            newHangulChar = 0x3131 + hangulKeyIdx;
-                            hangulSendKey(newHangulChar, HCURSOR_ADD);
-
-                            Log.d("SoftKey", "--- Goto HAN_STATE 1");
-                            mHangulState = H_STATE_1; // goto 초성
-                        } else {
-
-                            Log.d("SoftKey", "--- Goto HAN_STATE 5");
-                            mHangulState = H_STATE_5; // goto 초성,중성,종성
-                        }
-                    } else { // if 모음
-                        if (mHangulKeyStack[3] == 0) {
-                            int newHangulKeyIdx = isHangulKey(2, hangulKeyIdx);
-                            if (newHangulKeyIdx > 0) { // if 복모음
-                                //	                	hangulSendKey(-1);
-                                mHangulKeyStack[2] = newHangulKeyIdx;
-                                //	                    mHangulKeyStack[3] = hangulKeyIdx;
-                                mHangulJamoStack[1] = newHangulKeyIdx;
-                                cho_idx = h_chosung_idx[mHangulJamoStack[0]];
-                                jung_idx = mHangulJamoStack[1] - 30;
-                                jong_idx = 0;
-                                newHangulChar = 0xAC00 + ((cho_idx * 21 * 28) + (jung_idx * 28) + jong_idx);
-                                hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-
-                                Log.d("SoftKey", "--- Goto HAN_STATE 4");
-                                mHangulState = H_STATE_4; // goto 초성,중성
-                            } else { // if invalid 복모음
-
-                                // cursor error trick start
-                                cho_idx = h_chosung_idx[mHangulJamoStack[0]];
-                                jung_idx = mHangulJamoStack[1] - 30;
-                                jong_idx = 0;
-                                newHangulChar = 0xAC00 + ((cho_idx * 21 * 28) + (jung_idx * 28) + jong_idx);
-                                hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-                                // trick end
-
-                                newHangulChar = 0x314F + (hangulKeyIdx - 30);
-                                hangulSendKey(newHangulChar, HCURSOR_ADD);
-                                mHangulKeyStack[0] = 0;
-                                mHangulKeyStack[1] = 0;
-                                mHangulJamoStack[0] = 0;
-                                mHangulKeyStack[2] = hangulKeyIdx;
-                                mHangulJamoStack[1] = hangulKeyIdx;
-
-                                Log.d("SoftKey", "--- Goto HAN_STATE 3");
-                                mHangulState = H_STATE_3; // goto 중성
-                            }
-                        } else {
-
-                            // cursor error trick start
-                            cho_idx = h_chosung_idx[mHangulJamoStack[0]];
-                            jung_idx = mHangulJamoStack[1] - 30;
-                            jong_idx = 0;
-                            newHangulChar = 0xAC00 + ((cho_idx * 21 * 28) + (jung_idx * 28) + jong_idx);
-                            hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-                            // trick end
-
-
-                            newHangulChar = 0x314F + (hangulKeyIdx - 30);
-                            hangulSendKey(newHangulChar, HCURSOR_ADD);
-                            mHangulKeyStack[0] = 0;
-                            mHangulKeyStack[1] = 0;
-                            mHangulJamoStack[0] = 0;
-                            mHangulKeyStack[2] = hangulKeyIdx;
-                            mHangulJamoStack[1] = hangulKeyIdx;
-                            mHangulKeyStack[3] = 0;
-
-                            Log.d("SoftKey", "--- Goto HAN_STATE 3");
-                            mHangulState = H_STATE_3; // goto 중성
+        int hangulKeyIdx = mHangulComposer.keyIndex(primaryCode, mHangulShiftState != 0);
 
-                        }
-                    }
-                    break;
-                case H_STATE_5: // 초성,중성,종성
-                    Log.d("SoftKey", "HAN_STATE 5");
-                    if (hangulKeyIdx < 30) { // if 자음
-                        int newHangulKeyIdx = isHangulKey(4, hangulKeyIdx);
-                        if (newHangulKeyIdx > 0) { // if 종성 == 복자음
-//	                	hangulSendKey(-1);
-                            mHangulKeyStack[5] = hangulKeyIdx;
-                            mHangulJamoStack[2] = newHangulKeyIdx;
-
-                            cho_idx = h_chosung_idx[mHangulJamoStack[0]];
-                            jung_idx = mHangulJamoStack[1] - 30;
-                            jong_idx = h_jongsung_idx[mHangulJamoStack[2] + 1];
-                            ;
-                            newHangulChar = 0xAC00 + ((cho_idx * 21 * 28) + (jung_idx * 28) + jong_idx);
-                            hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-
-                            Log.d("SoftKey", "--- Goto HAN_STATE 6");
-                            mHangulState = H_STATE_6; // goto  초성,중성,종성(복자음)
-                        } else { // if 종성 != 복자음
-
-                            // cursor error trick start
-                            cho_idx = h_chosung_idx[mHangulJamoStack[0]];
-                            jung_idx = mHangulJamoStack[1] - 30;
-                            jong_idx = h_jongsung_idx[mHangulJamoStack[2] + 1];
-                            ;
-                            newHangulChar = 0xAC00 + ((cho_idx * 21 * 28) + (jung_idx * 28) + jong_idx);
-                            hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-                            // trick end
-
-
-                            mHangulKeyStack[0] = hangulKeyIdx;
-                            mHangulKeyStack[1] = 0;
-                            mHangulKeyStack[2] = 0;
-                            mHangulKeyStack[3] = 0;
-                            mHangulKeyStack[4] = 0;
-                            mHangulJamoStack[0] = hangulKeyIdx;
-                            mHangulJamoStack[1] = 0;
-                            mHangulJamoStack[2] = 0;
-                            newHangulChar = 0x3131 + hangulKeyIdx;
-                            hangulSendKey(newHangulChar, HCURSOR_ADD);
-
-                            Log.d("SoftKey", "--- Goto HAN_STATE 1");
-                            mHangulState = H_STATE_1; // goto 초성
-                        }
-                    } else { // if 모음
-//	            	hangulSendKey(-1);
-
-                        cho_idx = h_chosung_idx[mHangulJamoStack[0]];
-                        jung_idx = mHangulJamoStack[1] - 30;
-                        jong_idx = 0;
-                        newHangulChar = 0xAC00 + ((cho_idx * 21 * 28) + (jung_idx * 28) + jong_idx);
-                        hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-
-                        mHangulKeyStack[0] = mHangulKeyStack[4];
-                        mHangulKeyStack[1] = 0;
-                        mHangulKeyStack[2] = hangulKeyIdx;
-                        mHangulKeyStack[3] = 0;
-                        mHangulKeyStack[4] = 0;
-                        mHangulJamoStack[0] = mHangulKeyStack[0];
-                        mHangulJamoStack[1] = mHangulKeyStack[2];
-                        mHangulJamoStack[2] = 0;
-
-                        cho_idx = h_chosung_idx[mHangulJamoStack[0]];
-                        jung_idx = mHangulJamoStack[1] - 30;
-                        jong_idx = 0;
-                        newHangulChar = 0xAC00 + ((cho_idx * 21 * 28) + (jung_idx * 28) + jong_idx);
-                        hangulSendKey(newHangulChar, HCURSOR_ADD);
-
-                        Log.d("SoftKey", "--- Goto HAN_STATE 4");
-                        mHangulState = H_STATE_4; // goto 초성,중성
-                    }
-                    break;
-                case H_STATE_6: // 초성,중성,종성(복자음)
-                    Log.d("SoftKey", "HAN_STATE 6");
-                    if (hangulKeyIdx < 30) { // if 자음
-
-                        // cursor error trick start
-                        cho_idx = h_chosung_idx[mHangulJamoStack[0]];
-                        jung_idx = mHangulJamoStack[1] - 30;
-                        jong_idx = h_jongsung_idx[mHangulJamoStack[2] + 1];
-                        ;
-                        newHangulChar = 0xAC00 + ((cho_idx * 21 * 28) + (jung_idx * 28) + jong_idx);
-                        hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-                        // trick end
-
-
-                        mHangulKeyStack[0] = hangulKeyIdx;
-                        mHangulKeyStack[1] = 0;
-                        mHangulKeyStack[2] = 0;
-                        mHangulKeyStack[3] = 0;
-                        mHangulKeyStack[4] = 0;
-                        mHangulJamoStack[0] = hangulKeyIdx;
-                        mHangulJamoStack[1] = 0;
-                        mHangulJamoStack[2] = 0;
-
-                        newHangulChar = 0x3131 + hangulKeyIdx;
-                        hangulSendKey(newHangulChar, HCURSOR_ADD);
-
-                        Log.d("SoftKey", "--- Goto HAN_STATE 1");
-                        mHangulState = H_STATE_1; // goto 초성
-                    } else { // if 모음
-//	            	hangulSendKey(-1);
-                        mHangulJamoStack[2] = mHangulKeyStack[4];
-
-                        cho_idx = h_chosung_idx[mHangulJamoStack[0]];
-                        jung_idx = mHangulJamoStack[1] - 30;
-                        jong_idx = h_jongsung_idx[mHangulJamoStack[2] + 1];
-                        ;
-                        newHangulChar = 0xAC00 + ((cho_idx * 21 * 28) + (jung_idx * 28) + jong_idx);
-                        hangulSendKey(newHangulChar, HCURSOR_UPDATE);
-
-                        mHangulKeyStack[0] = mHangulKeyStack[5];
-                        mHangulKeyStack[1] = 0;
-                        mHangulKeyStack[2] = hangulKeyIdx;
-                        mHangulKeyStack[3] = 0;
-                        mHangulKeyStack[4] = 0;
-                        mHangulKeyStack[5] = 0;
-                        mHangulJamoStack[0] = mHangulKeyStack[0];
-                        mHangulJamoStack[1] = mHangulKeyStack[2];
-                        mHangulJamoStack[2] = 0;
-
-                        cho_idx = h_chosung_idx[mHangulJamoStack[0]];
-                        jung_idx = mHangulJamoStack[1] - 30;
-                        jong_idx = 0;
-                        newHangulChar = 0xAC00 + ((cho_idx * 21 * 28) + (jung_idx * 28) + jong_idx);
-                        hangulSendKey(newHangulChar, HCURSOR_ADD);
-
-                        Log.d("SoftKey", "--- Goto HAN_STATE 4");
-                        mHangulState = H_STATE_4; // goto 초성,중성
-                    }
-                    break;
+        if (hangulKeyIdx >= 0) {
+            if (mHangulShiftState != 0 && mKeyClasses.is(primaryCode, KeyClassifier.LATIN_LOWER)) {
+                mHangulShiftState = 0;
+                ((LatinKeyboardView) mInputView).setFace(mHangulFaces, false);
             }
+            mHangulComposer.process(hangulKeyIdx);
+            applyHangulDelta(mHangulComposer);
         } else {
-            // Log.i("Hangul", "handleHangul - No hancode");
+            // 3-beolsik layouts put digits and symbols on other keys.
+            char literal = mHangulComposer.getLayout().literal(primaryCode,
+                    mHangulShiftState != 0);
             clearHangul();
-            sendKey(primaryCode);
+            sendKey(literal != 0 ? literal : primaryCode);
         }
-
     }
 // Hangul Code End    
 
@@ -1719,9 +1273,35 @@ public class SoftKeyboard extends InputMethodService
                 primaryCode = Character.toUpperCase(primaryCode);
             }
         }
-        if (isAlphabet(primaryCode) && mPredictionOn) {
+        if (mRomanize && mPredictionOn && RomanizationComposer.isKey(primaryCode)) {
+            mRomanizer.process(primaryCode);
+            applyHangulDelta(mRomanizer);
+            updateShiftKeyState(getCurrentInputEditorInfo());
+            updateCandidates();
+        } else if (mRomanize && mComposing.length() > 0) {
+            // Anything else finishes the word first.
+            InputConnection ic = getCurrentInputConnection();
+            ic.beginBatchEdit();
+            commitTyped(ic);
+            clearHangul();
+            sendKeyChar((char) primaryCode);
+            ic.endBatchEdit();
+        } else if (isAlphabet(primaryCode) && mPredictionOn) {
             mComposing.append((char) primaryCode);
-            getCurrentInputConnection().setComposingText(mComposing, 1);
+            InputConnection ic = getCurrentInputConnection();
+            if (mComposing.length() > COMPOSING_LIMIT) {
+                // A long unbroken token like a URL: commit all but its
+                // tail, so that a keystroke resends a few characters and
+                // not the whole token.
+                int settled = mComposing.length() - COMPOSING_KEEP;
+                ic.beginBatchEdit();
+                ic.commitText(mComposing.subSequence(0, settled), 1);
+                mComposing.delete(0, settled);
+                ic.setComposingText(mComposing, 1);
+                ic.endBatchEdit();
+            } else {
+                ic.setComposingText(mComposing, 1);
+            }
             updateShiftKeyState(getCurrentInputEditorInfo());
             updateCandidates();
         } else {
@@ -1749,13 +1329,8 @@ public class SoftKeyboard extends InputMethodService
         }
     }
 
-    private String getWordSeparators() {
-        return mWordSeparators;
-    }
-
     public boolean isWordSeparator(int code) {
-        String separators = getWordSeparators();
-        return separators.contains(String.valueOf((char) code));
+        return mKeyClasses.is(code, KeyClassifier.SEPARATOR);
     }
 
     public void pickDefaultCandidate() {
@@ -1804,11 +1379,61 @@ public class SoftKeyboard extends InputMethodService
         mVibrator.vibrate(mVibrateDuration);
     }
 
+    /**
+     * The space bar became a trackpad: finish what is being composed where
+     * it is, so that only the cursor moves.
+     */
+    public void onCursorDragStart() {
+        endDeleteRepeat();
+        mCursorDrag = 0;
+        InputConnection ic = getCurrentInputConnection();
+        if (ic != null && mComposing.length() > 0) {
+            ic.finishComposingText();
+            mComposing.setLength(0);
+            updateCandidates();
+        }
+        clearHangul();
+    }
+
+    /**
+     * Collects the drag and moves the cursor once per frame, from where
+     * our own edits left it rather than from the editor's reports.
+     */
+    public void onCursorDrag(int chars) {
+        mCursorDrag += chars;
+        if (!mHandler.hasMessages(MSG_CURSOR)) {
+            mHandler.sendEmptyMessageDelayed(MSG_CURSOR, FRAME_MS);
+        }
+    }
+
+    public void onCursorDragEnd() {
+        flushCursorDrag();
+    }
+
+    private void flushCursorDrag() {
+        mHandler.removeMessages(MSG_CURSOR);
+        if (mCursorDrag == 0) {
+            return;
+        }
+        InputConnection ic = getCurrentInputConnection();
+        int cursor = mMirror.getCursor();
+        if (ic != null && cursor >= 0) {
+            int offset = mMirror.clampMove(mCursorDrag);
+            if (offset != 0) {
+                ic.setSelection(cursor + offset, cursor + offset);
+            }
+        }
+        mCursorDrag = 0;
+    }
+
     public void onPress(int primaryCode) {
         //vibrate();
     }
 
 
     public void onRelease(int primaryCode) {
+        if (primaryCode == Keyboard.KEYCODE_DELETE) {
+            endDeleteRepeat();
+        }
     }
 }
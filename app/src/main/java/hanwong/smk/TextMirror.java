@@ -0,0 +1,493 @@
+package hanwong.smk;
+
+import android.text.TextUtils;
+import android.view.KeyEvent;
+import android.view.inputmethod.CompletionInfo;
+import android.view.inputmethod.ExtractedText;
+import android.view.inputmethod.ExtractedTextRequest;
+import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.InputConnectionWrapper;
+
+/**
+ * Local copy of the editor text around the cursor, so that auto-caps and
+ * the text before the cursor can be read without a round trip to the
+ * application.
+ *
+ * The copy is read from the editor once, when input starts or after it
+ * was thrown away, and is then kept current from our own edits: every
+ * call made through {@link #wrap} is applied to the copy as well, and
+ * {@link #onUpdateSelection} checks the editor's reports against them.
+ * A report the copy cannot account for, like the user moving the cursor
+ * or the application changing its text, throws it away and the next read
+ * fetches it again.  Reads made through {@link #wrap} are answered from
+ * the copy while it is valid.
+ */
+final class TextMirror {
+
+    /** Characters fetched from each side of the cursor. */
+    static final int WINDOW = 128;
+
+    private final StringBuilder mBefore = new StringBuilder(WINDOW * 2);
+    private final StringBuilder mAfter = new StringBuilder(WINDOW * 2);
+    private boolean mValid;
+    private boolean mAtStart; // mBefore reaches back to the start of the text
+    private boolean mAtEnd;   // mAfter reaches the end of the text
+    private int mComposing;   // characters at the end of mBefore that are composing
+    private int mCursor = -1; // where our own edits leave the cursor, -1 if unknown
+
+    // Cursor positions our own edits lead to that the editor has not
+    // reported back yet, oldest first, and the composing text then.
+    private final int[] mPending = new int[16];
+    private final int[] mPendingComposing = new int[16];
+    private int mPendingCount;
+    // Set by an edit of ours made while the cursor was unknown: the next
+    // report is taken to be for it.
+    private boolean mBlind;
+
+    private InputConnection mTarget;
+    private Wrapper mWrapper;
+
+    /**
+     * Starts mirroring a new editor and reads the text around its cursor.
+     */
+    void start(InputConnection ic, int selStart, int selEnd) {
+        mTarget = ic;
+        mWrapper = null;
+        mComposing = 0;
+        mPendingCount = 0;
+        mBlind = false;
+        mCursor = selStart >= 0 && selStart == selEnd ? selStart : -1;
+        invalidate();
+        sync();
+    }
+
+    /**
+     * Throws the copy away; the next read fetches the text again.
+     */
+    void invalidate() {
+        mValid = false;
+        mBefore.setLength(0);
+        mAfter.setLength(0);
+    }
+
+    /**
+     * The connection to make edits through, so that they are mirrored.
+     */
+    InputConnection wrap(InputConnection ic) {
+        if (ic != mTarget || mWrapper == null) {
+            mTarget = ic;
+            mWrapper = new Wrapper(ic);
+        }
+        return mWrapper;
+    }
+
+    private boolean sync() {
+        if (mValid) {
+            return true;
+        }
+        if (mTarget == null) {
+            return false;
+        }
+        CharSequence before = mTarget.getTextBeforeCursor(WINDOW, 0);
+        CharSequence after = mTarget.getTextAfterCursor(WINDOW, 0);
+        if (before == null || after == null) {
+            return false;
+        }
+        mBefore.setLength(0);
+        mBefore.append(before);
+        mAfter.setLength(0);
+        mAfter.append(after);
+        mAtStart = before.length() < WINDOW;
+        mAtEnd = after.length() < WINDOW;
+        mComposing = Math.max(0, Math.min(mComposing, mBefore.length()));
+        mValid = true;
+        return true;
+    }
+
+    /**
+     * Same as {@link InputConnection#getCursorCapsMode}, read from the copy.
+     */
+    int getCursorCapsMode(int reqModes) {
+        if (!sync()) {
+            return mTarget != null ? mTarget.getCursorCapsMode(reqModes) : 0;
+        }
+        return TextUtils.getCapsMode(mBefore, mBefore.length(), reqModes);
+    }
+
+    /**
+     * The character before the cursor, or 0 if there is none or the text
+     * cannot be read.
+     */
+    char charBeforeCursor() {
+        if (!sync() || mBefore.length() == 0) {
+            return 0;
+        }
+        return mBefore.charAt(mBefore.length() - 1);
+    }
+
+    /**
+     * Where the cursor is, or -1 if there is a selection or the editor
+     * cannot tell.  It is read from the editor only if our own edits do
+     * not tell.
+     */
+    int getCursor() {
+        if (mCursor < 0 && mTarget != null) {
+            ExtractedTextRequest request = new ExtractedTextRequest();
+            request.hintMaxChars = WINDOW;
+            ExtractedText et = mTarget.getExtractedText(request, 0);
+            if (et != null && et.selectionStart >= 0
+                    && et.selectionStart == et.selectionEnd) {
+                mCursor = et.startOffset + et.selectionStart;
+            }
+        }
+        return mCursor;
+    }
+
+    /**
+     * Limits a cursor move of {@code offset} characters to the text.  A
+     * move past the copy reads the text beyond it first, so a long move
+     * may come out shorter and continue on the next call.
+     */
+    int clampMove(int offset) {
+        if (!sync()) {
+            return 0;
+        }
+        if ((offset < 0 && mBefore.length() == 0 && !mAtStart)
+                || (offset > 0 && mAfter.length() == 0 && !mAtEnd)) {
+            invalidate();
+            if (!sync()) {
+                return 0;
+            }
+        }
+        return Math.max(-mBefore.length(), Math.min(offset, mAfter.length()));
+    }
+
+    /**
+     * Length of the word that ends {@code skip} characters before the
+     * cursor, together with the spaces after it, or 0 if the text cannot
+     * be read or there is nothing before it.  A character that is neither
+     * a letter nor a digit counts as a word on its own.
+     */
+    int wordBeforeCursor(int skip) {
+        if (!sync()) {
+            return 0;
+        }
+        int end = mBefore.length() - skip;
+        int i = end;
+        while (i > 0 && Character.isWhitespace(mBefore.charAt(i - 1))) {
+            i--;
+        }
+        if (i > 0 && !Character.isLetterOrDigit(mBefore.charAt(i - 1))) {
+            i--;
+        } else {
+            while (i > 0 && Character.isLetterOrDigit(mBefore.charAt(i - 1))) {
+                i--;
+            }
+        }
+        return Math.max(0, end - i);
+    }
+
+    /**
+     * Applies a selection change reported by the editor.  Reports of our
+     * own edits are only checked off; anything else throws the copy away.
+     * An edit may be reported in several steps, one for each call when
+     * the editor does not batch them, or once for a whole batch; a report
+     * checks off its step and every step before it.  Returns
+     * true if the report is for our own edits, false if the user moved
+     * the cursor or the application changed the text.
+     */
+    boolean onUpdateSelection(int oldSelStart, int oldSelEnd, int newSelStart, int newSelEnd,
+            int candidatesStart, int candidatesEnd) {
+        // A batch can pass the same cursor twice, as a backspace into the
+        // syllable before does, so the last step the report fits is taken,
+        // going by the composing text too; a step before it that is left
+        // over would later take a user's move there for ours.
+        int step = -1;
+        if (newSelStart == newSelEnd) {
+            int composing = candidatesEnd == newSelEnd ? candidatesEnd - candidatesStart : 0;
+            for (int i = mPendingCount - 1; i >= 0; i--) {
+                if (mPending[i] != newSelStart) {
+                    continue;
+                }
+                if (step < 0) {
+                    step = i;
+                }
+                if (mPendingComposing[i] == composing) {
+                    step = i;
+                    break;
+                }
+            }
+        }
+        if (step >= 0) {
+            mPendingCount -= step + 1;
+            System.arraycopy(mPending, step + 1, mPending, 0, mPendingCount);
+            System.arraycopy(mPendingComposing, step + 1, mPendingComposing, 0, mPendingCount);
+            if (mPendingCount == 0 && candidatesEnd - candidatesStart != mComposing) {
+                // The composing text is not what we think it is.
+                invalidate();
+            }
+            return true;
+        }
+        if (mPendingCount == 0 && newSelStart == mCursor && newSelEnd == mCursor) {
+            return true;
+        }
+        if (mBlind) {
+            // Ours, but we could not tell where it would leave the cursor.
+            mBlind = false;
+            mPendingCount = 0;
+            mComposing = candidatesEnd == newSelEnd ? candidatesEnd - candidatesStart : 0;
+            invalidate();
+            mCursor = newSelStart == newSelEnd ? newSelStart : -1;
+            return true;
+        }
+
+        // The user moved the cursor or the application changed the text.
+        // From the selection alone the two look the same, so read again.
+        mPendingCount = 0;
+        mComposing = candidatesEnd == newSelEnd ? candidatesEnd - candidatesStart : 0;
+        invalidate();
+        mCursor = newSelStart == newSelEnd ? newSelStart : -1;
+        return false;
+    }
+
+    private void expect() {
+        if (mCursor < 0) {
+            mBlind = true;
+            return;
+        }
+        if (mPendingCount == mPending.length) {
+            mPendingCount--;
+            System.arraycopy(mPending, 1, mPending, 0, mPendingCount);
+            System.arraycopy(mPendingComposing, 1, mPendingComposing, 0, mPendingCount);
+        }
+        mPending[mPendingCount] = mCursor;
+        mPendingComposing[mPendingCount++] = mComposing;
+    }
+
+    /**
+     * Replaces the composing text, or inserts at the cursor, then moves
+     * the cursor as {@link InputConnection#commitText} does.
+     */
+    private void replaceComposing(CharSequence text, int newCursorPosition, boolean composing) {
+        int length = text.length();
+        if (mValid) {
+            mBefore.setLength(mBefore.length() - mComposing);
+            mBefore.append(text);
+            if (mBefore.length() > WINDOW * 2) {
+                mBefore.delete(0, mBefore.length() - WINDOW);
+                mAtStart = false;
+            }
+        }
+        if (mCursor >= 0) {
+            mCursor += length - mComposing;
+        }
+        mComposing = composing ? length : 0;
+        int offset = newCursorPosition > 0 ? newCursorPosition - 1 : newCursorPosition - length;
+        if (offset != 0) {
+            moveCursor(offset);
+            if (composing) {
+                invalidate();
+            }
+        }
+        expect();
+    }
+
+    /**
+     * Moves the cursor over the copy.  The composing text, if any, no
+     * longer ends at the cursor, so it is forgotten.
+     */
+    private void moveCursor(int offset) {
+        mComposing = 0;
+        if (mValid && offset < 0) {
+            if (-offset > mBefore.length()) {
+                if (!mAtStart) {
+                    invalidate();
+                }
+                offset = -mBefore.length();
+            }
+        } else if (mValid && offset > 0) {
+            if (offset > mAfter.length()) {
+                if (!mAtEnd) {
+                    invalidate();
+                }
+                offset = mAfter.length();
+            }
+        }
+        if (mCursor >= 0) {
+            mCursor = Math.max(0, mCursor + offset);
+        }
+        if (!mValid) {
+            return;
+        }
+        if (offset < 0) {
+            mAfter.insert(0, mBefore, mBefore.length() + offset, mBefore.length());
+            mBefore.setLength(mBefore.length() + offset);
+            if (mAfter.length() > WINDOW * 2) {
+                mAfter.setLength(WINDOW);
+                mAtEnd = false;
+            }
+        } else if (offset > 0) {
+            mBefore.append(mAfter, 0, offset);
+            mAfter.delete(0, offset);
+            if (mBefore.length() > WINDOW * 2) {
+                mBefore.delete(0, mBefore.length() - WINDOW);
+                mAtStart = false;
+            }
+        }
+    }
+
+    /**
+     * Deletes around the cursor as {@link InputConnection#deleteSurroundingText}
+     * does: the characters before are taken from before the composing text.
+     */
+    private void delete(int beforeLength, int afterLength) {
+        if (mValid) {
+            int end = mBefore.length() - mComposing;
+            if ((beforeLength > end && !mAtStart) || (afterLength > mAfter.length() && !mAtEnd)) {
+                invalidate();
+            } else {
+                beforeLength = Math.min(beforeLength, end);
+                mBefore.delete(end - beforeLength, end);
+                mAfter.delete(0, Math.min(afterLength, mAfter.length()));
+            }
+        }
+        if (mCursor >= 0) {
+            mCursor = Math.max(0, mCursor - beforeLength);
+        }
+        expect();
+    }
+
+    private void keyDown(int keyCode) {
+        if (mComposing > 0) {
+            // The editor decides what a key does to composing text.
+            invalidate();
+            mComposing = 0;
+            mCursor = -1;
+            mBlind = true;
+            return;
+        }
+        if (keyCode == KeyEvent.KEYCODE_DEL) {
+            delete(1, 0);
+        } else if (keyCode == KeyEvent.KEYCODE_ENTER) {
+            replaceComposing("\n", 1, false);
+        } else if (keyCode >= KeyEvent.KEYCODE_0 && keyCode <= KeyEvent.KEYCODE_0 + 9) {
+            replaceComposing(String.valueOf((char) ('0' + keyCode - KeyEvent.KEYCODE_0)), 1,
+                    false);
+        } else {
+            invalidate();
+            mCursor = -1;
+            mBlind = true;
+        }
+    }
+
+    /**
+     * Passes every call on to the editor, applying edits to the copy.
+     */
+    private class Wrapper extends InputConnectionWrapper {
+
+        Wrapper(InputConnection target) {
+            super(target, false);
+        }
+
+        // Reads are answered from the copy while it holds what they ask
+        // for, without waiting for the editor to take our edits.
+
+        @Override
+        public CharSequence getTextBeforeCursor(int n, int flags) {
+            if (mValid && flags == 0 && (n <= mBefore.length() || mAtStart)) {
+                int end = mBefore.length();
+                return mBefore.substring(Math.max(0, end - n), end);
+            }
+            return super.getTextBeforeCursor(n, flags);
+        }
+
+        @Override
+        public CharSequence getTextAfterCursor(int n, int flags) {
+            if (mValid && flags == 0 && (n <= mAfter.length() || mAtEnd)) {
+                return mAfter.substring(0, Math.min(n, mAfter.length()));
+            }
+            return super.getTextAfterCursor(n, flags);
+        }
+
+        @Override
+        public int getCursorCapsMode(int reqModes) {
+            if (mValid) {
+                return TextUtils.getCapsMode(mBefore, mBefore.length(), reqModes);
+            }
+            return super.getCursorCapsMode(reqModes);
+        }
+
+        @Override
+        public boolean commitText(CharSequence text, int newCursorPosition) {
+            replaceComposing(text, newCursorPosition, false);
+            return super.commitText(text, newCursorPosition);
+        }
+
+        @Override
+        public boolean setComposingText(CharSequence text, int newCursorPosition) {
+            replaceComposing(text, newCursorPosition, true);
+            return super.setComposingText(text, newCursorPosition);
+        }
+
+        @Override
+        public boolean setComposingRegion(int start, int end) {
+            if (mCursor >= 0 && end == mCursor && start <= end
+                    && (!mValid || end - start <= mBefore.length())) {
+                mComposing = end - start;
+            } else {
+                invalidate();
+            }
+            return super.setComposingRegion(start, end);
+        }
+
+        @Override
+        public boolean finishComposingText() {
+            mComposing = 0;
+            return super.finishComposingText();
+        }
+
+        @Override
+        public boolean deleteSurroundingText(int beforeLength, int afterLength) {
+            delete(beforeLength, afterLength);
+            return super.deleteSurroundingText(beforeLength, afterLength);
+        }
+
+        @Override
+        public boolean sendKeyEvent(KeyEvent event) {
+            if (event.getAction() == KeyEvent.ACTION_DOWN) {
+                keyDown(event.getKeyCode());
+            }
+            return super.sendKeyEvent(event);
+        }
+
+        @Override
+        public boolean setSelection(int start, int end) {
+            if (mCursor >= 0 && start == end) {
+                moveCursor(start - mCursor);
+                expect();
+            } else {
+                invalidate();
+                mCursor = -1;
+                mBlind = true;
+            }
+            return super.setSelection(start, end);
+        }
+
+        @Override
+        public boolean commitCompletion(CompletionInfo text) {
+            invalidate();
+            mComposing = 0;
+            mCursor = -1;
+            mBlind = true;
+            return super.commitCompletion(text);
+        }
+
+        @Override
+        public boolean performContextMenuAction(int id) {
+            invalidate();
+            mCursor = -1;
+            mBlind = true;
+            return super.performContextMenuAction(id);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package hanwong.smk;
+
+import android.inputmethodservice.Keyboard;
+import android.text.InputType;
+import android.view.KeyEvent;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputConnection;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Counts what each keystroke costs the editor.  Scripted key sequences are
+ * typed through {@link SoftKeyboard#onKey} into a
+ * {@link RecordingInputConnection}, one fresh editor per input mode, and
+ * the report lists editor calls, reads and bytes of text per keystroke
+ * and the time from the keystroke to the editor's last call for it.  The
+ * final text of every script is checked.  Run with
+ * {@code gradle :app:testDebugUnitTest}; the report goes to the console.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class EditorCallProfile {
+
+    // A press of the mode key, swiped in the given direction.
+    private static final int MODE = 1 << 20;
+    // Letting go of the delete key.
+    private static final int RELEASE_DEL = MODE + 16;
+    private static final int DEL = Keyboard.KEYCODE_DELETE;
+    // A letter typed on a hardware keyboard, by key code, and with Shift
+    // pressed and let go around it.
+    private static final int HARD = 1 << 21;
+    private static final int HARD_SHIFT = 1 << 22;
+
+    /** The keyboard with the editor swapped for the recording one. */
+    public static class Service extends SoftKeyboard {
+        RecordingInputConnection mEditor;
+
+        @Override
+        InputConnection getEditorConnection() {
+            return mEditor;
+        }
+    }
+
+    private static final class Script {
+        final String name;
+        final int[] keys;
+        final String expected;
+
+        Script(String name, int[] keys, String expected) {
+            this.name = name;
+            this.keys = keys;
+            this.expected = expected;
+        }
+    }
+
+    private static int[] keys(Object... parts) {
+        int[] out = new int[64];
+        int n = 0;
+        for (Object part : parts) {
+            String codes = part instanceof String ? (String) part : null;
+            int[] many = part instanceof int[] ? (int[]) part : null;
+            int count = codes != null ? codes.length() : many != null ? many.length : 1;
+            if (n + count > out.length) {
+                out = Arrays.copyOf(out, (n + count) * 2);
+            }
+            for (int i = 0; i < count; i++) {
+                out[n++] = codes != null ? codes.charAt(i)
+                        : many != null ? many[i] : (Integer) part;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int mode(int direction) {
+        return MODE + direction;
+    }
+
+    private static int[] hard(String letters) {
+        int[] out = new int[letters.length()];
+        for (int i = 0; i < out.length; i++) {
+            char c = letters.charAt(i);
+            out[i] = HARD + KeyEvent.KEYCODE_A + Character.toLowerCase(c) - 'a'
+                    + (Character.isUpperCase(c) ? HARD_SHIFT : 0);
+        }
+        return out;
+    }
+
+    private static int[] repeat(int key, int count) {
+        int[] out = new int[count];
+        Arrays.fill(out, key);
+        return out;
+    }
+
+    private static final Script[] SCRIPTS = {
+            new Script("latin",
+                    keys("helo", DEL, "lo world. 123\n"),
+                    "hello world. 123\n"),
+            new Script("2-beolsik",
+                    keys(mode(0), "dkssudgktpdy qksrkqtmqslek", DEL, "k 42"),
+                    "안녕하세요 반갑습니다 42"),
+            // Backspace takes back one keystroke at a time, reopening the
+            // syllable the last one finished: 하가, 학, 하, then ㄴ goes on
+            // from there.
+            new Script("delete-retype",
+                    keys(mode(0), "gkrk", DEL, DEL, "s"),
+                    "한"),
+            new Script("3-beolsik-final",
+                    keys(mode(0), mode(4), "mfskgw mfskgw"),
+                    "한글 한글"),
+            new Script("cheonjiin",
+                    keys(mode(0), mode(2), 65, 74, 75, 66, 74, 75, " ", 67, 74, 75),
+                    "가나 다"),
+            // A ㆍ left hanging is dropped when a consonant or a space
+            // follows.
+            new Script("cheonjiin-dot",
+                    keys(mode(0), mode(2), 65, 75, 76, 75, 66, 74, " ", 65, 75, 66, 74, " ",
+                            65, 75, 76, 75, " "),
+                    "고니 ㄱ니 고 "),
+            new Script("romanized",
+                    keys(mode(2), "annyeonghaseyo hangeul", DEL, "l"),
+                    "안녕하세요 한글"),
+            new Script("romanized-delete",
+                    keys(mode(2), "hangeu", DEL, "l gamsahapnida"),
+                    "한겔 감사합니다"),
+            new Script("hardware-shift",
+                    keys(mode(0), hard("dlTekrkT")),
+                    "있다갔"),
+            new Script("hold-delete",
+                    keys("the quick brown fox jumps over the lazy dog "
+                            + "the quick brown fox jumps over the lazy dog ",
+                            repeat(DEL, 30), RELEASE_DEL),
+                    "the quick brown fox jumps "),
+    };
+
+    @Test
+    public void profile() {
+        System.out.println(String.format(Locale.US, "%-16s %5s %7s %7s %8s %9s  %s",
+                "mode", "keys", "calls/k", "reads/k", "bytes/k", "us/k", "text"));
+        for (Script script : SCRIPTS) {
+            run(script);
+        }
+    }
+
+    private void run(Script script) {
+        Service ime = Robolectric.buildService(Service.class).create().get();
+        RecordingInputConnection editor = new RecordingInputConnection();
+        ime.mEditor = editor;
+        ime.onInitializeInterface();
+        LatinKeyboardView view = (LatinKeyboardView) ime.onCreateInputView();
+        EditorInfo info = new EditorInfo();
+        info.inputType = InputType.TYPE_CLASS_TEXT;
+        info.initialSelStart = 0;
+        info.initialSelEnd = 0;
+        ime.onStartInput(info, false);
+
+        // Always start from the qwerty keyboard.
+        Keyboard keyboard = view.getKeyboard();
+        if (keyboard instanceof HangulKeyboard) {
+            press(ime, view, editor, mode(0));
+        } else if (keyboard.getKeys().get(0).codes[0] != 'q') {
+            press(ime, view, editor, mode(3));
+        }
+
+        int first = editor.getCallCount();
+        long latency = 0;
+        int keystrokes = 0;
+        for (int key : script.keys) {
+            long start = System.nanoTime();
+            int before = editor.getCallCount();
+            press(ime, view, editor, key);
+            if (key < MODE || key >= HARD) {
+                keystrokes++;
+                if (editor.getCallCount() > before) {
+                    latency += editor.getCall(editor.getCallCount() - 1).nanos - start;
+                }
+            }
+        }
+
+        int calls = 0;
+        int reads = 0;
+        int bytes = 0;
+        for (int i = first; i < editor.getCallCount(); i++) {
+            RecordingInputConnection.Call call = editor.getCall(i);
+            calls++;
+            reads += call.read ? 1 : 0;
+            bytes += call.bytes;
+        }
+        String text = editor.getText();
+        System.out.println(String.format(Locale.US, "%-16s %5d %7.2f %7.2f %8.1f %9.1f  %s",
+                script.name, keystrokes, calls / (double) keystrokes,
+                reads / (double) keystrokes, bytes / (double) keystrokes,
+                latency / 1000.0 / keystrokes, text.equals(script.expected) ? "ok" : "WRONG"));
+        assertEquals(script.name, script.expected, text);
+        ime.onDestroy();
+    }
+
+    /**
+     * Types one key, waits until the editor has all of its edits and hands
+     * the editor's selection updates back to the keyboard.
+     */
+    private static void press(Service ime, LatinKeyboardView view,
+            RecordingInputConnection editor, int key) {
+        if (key >= HARD) {
+            hardKey(ime, key);
+        } else if (key == RELEASE_DEL) {
+            ime.onRelease(DEL);
+        } else if (key >= MODE) {
+            view.setSlideDirection(key - MODE);
+            ime.onKey(Keyboard.KEYCODE_MODE_CHANGE, null);
+            view.setSlideDirection(SlideClassifier.NONE);
+        } else {
+            ime.onKey(key, new int[] {key});
+        }
+        ime.awaitEdits();
+        editor.deliverUpdates(ime);
+    }
+
+    private static void hardKey(Service ime, int key) {
+        int keyCode = key & (HARD - 1);
+        int meta = 0;
+        if ((key & HARD_SHIFT) != 0) {
+            meta = KeyEvent.META_SHIFT_ON | KeyEvent.META_SHIFT_LEFT_ON;
+            ime.onKeyDown(KeyEvent.KEYCODE_SHIFT_LEFT, new KeyEvent(0, 0,
+                    KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_SHIFT_LEFT, 0, meta));
+        }
+        ime.onKeyDown(keyCode, new KeyEvent(0, 0, KeyEvent.ACTION_DOWN, keyCode, 0, meta));
+        ime.onKeyUp(keyCode, new KeyEvent(0, 0, KeyEvent.ACTION_UP, keyCode, 0, meta));
+        if (meta != 0) {
+            ime.onKeyUp(KeyEvent.KEYCODE_SHIFT_LEFT, new KeyEvent(0, 0,
+                    KeyEvent.ACTION_UP, KeyEvent.KEYCODE_SHIFT_LEFT, 0, 0));
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package hanwong.smk;
+
+import android.inputmethodservice.InputMethodService;
+import android.os.Bundle;
+import android.text.TextUtils;
+import android.view.KeyEvent;
+import android.view.inputmethod.CompletionInfo;
+import android.view.inputmethod.CorrectionInfo;
+import android.view.inputmethod.ExtractedText;
+import android.view.inputmethod.ExtractedTextRequest;
+import android.view.inputmethod.InputConnection;
+
+import java.util.ArrayList;
+
+/**
+ * In-memory editor that stands in for the application's side of the
+ * connection.  It applies edits to its own text the way a plain EditText
+ * does and records every call it gets, with the time it arrived and the
+ * size of the text it carried.
+ *
+ * Selection changes are not reported right away; like a real editor it
+ * collects them until the batch edit ends, and {@link #deliverUpdates}
+ * passes them to the input method on the calling thread.
+ */
+class RecordingInputConnection implements InputConnection {
+
+    /** One call from the input method. */
+    static final class Call {
+        final String method;
+        final long nanos;
+        /** Bytes of text the call carried, as UTF-16. */
+        final int bytes;
+        final boolean read;
+
+        Call(String method, long nanos, int bytes, boolean read) {
+            this.method = method;
+            this.nanos = nanos;
+            this.bytes = bytes;
+            this.read = read;
+        }
+    }
+
+    private final StringBuilder mText = new StringBuilder();
+    private int mSelStart;
+    private int mSelEnd;
+    private int mComposingStart = -1;
+    private int mComposingEnd = -1;
+    private int mBatchDepth;
+
+    private final ArrayList<Call> mCalls = new ArrayList<Call>();
+    private boolean mRecording = true;
+
+    // The selection last reported, and reports not delivered yet as
+    // {old start, old end, new start, new end, candidates start, end}.
+    private int mReportedStart;
+    private int mReportedEnd;
+    private final ArrayList<int[]> mUpdates = new ArrayList<int[]>();
+
+    synchronized String getText() {
+        return mText.toString();
+    }
+
+    synchronized int getCallCount() {
+        return mCalls.size();
+    }
+
+    synchronized Call getCall(int index) {
+        return mCalls.get(index);
+    }
+
+    /**
+     * Turns recording off, for reads the harness makes itself.
+     */
+    synchronized void setRecording(boolean recording) {
+        mRecording = recording;
+    }
+
+    /**
+     * Passes the selection changes collected so far to the input method.
+     */
+    void deliverUpdates(InputMethodService ime) {
+        for (int[] u : takeUpdates()) {
+            ime.onUpdateSelection(u[0], u[1], u[2], u[3], u[4], u[5]);
+        }
+    }
+
+    /**
+     * The selection changes collected so far, as onUpdateSelection's
+     * arguments, forgetting them.
+     */
+    synchronized int[][] takeUpdates() {
+        int[][] updates = mUpdates.toArray(new int[mUpdates.size()][]);
+        mUpdates.clear();
+        return updates;
+    }
+
+    private void record(String method, CharSequence text, boolean read) {
+        if (mRecording) {
+            mCalls.add(new Call(method, System.nanoTime(),
+                    text != null ? text.length() * 2 : 0, read));
+        }
+    }
+
+    private void edited() {
+        if (mBatchDepth > 0) {
+            return;
+        }
+        int[] u = mUpdates.isEmpty() ? null : mUpdates.get(mUpdates.size() - 1);
+        if (u != null && u[2] == mSelStart && u[3] == mSelEnd
+                && u[4] == mComposingStart && u[5] == mComposingEnd) {
+            return;
+        }
+        mUpdates.add(new int[] {mReportedStart, mReportedEnd, mSelStart, mSelEnd,
+                mComposingStart, mComposingEnd});
+        mReportedStart = mSelStart;
+        mReportedEnd = mSelEnd;
+    }
+
+    /**
+     * Replaces the composing text, or the selection if there is none,
+     * and places the cursor as commitText and setComposingText do.
+     */
+    private void replace(CharSequence text, int newCursorPosition, boolean composing) {
+        int start = mSelStart;
+        int end = mSelEnd;
+        if (mComposingStart >= 0) {
+            start = mComposingStart;
+            end = mComposingEnd;
+        }
+        mText.replace(start, end, text.toString());
+        int cursor = newCursorPosition > 0
+                ? start + text.length() + newCursorPosition - 1
+                : start + newCursorPosition;
+        mSelStart = mSelEnd = Math.max(0, Math.min(cursor, mText.length()));
+        if (composing && text.length() > 0) {
+            mComposingStart = start;
+            mComposingEnd = start + text.length();
+        } else {
+            mComposingStart = mComposingEnd = -1;
+        }
+        edited();
+    }
+
+    private void insertAtCursor(String text) {
+        mText.replace(mSelStart, mSelEnd, text);
+        mSelStart = mSelEnd = mSelStart + text.length();
+        mComposingStart = mComposingEnd = -1;
+        edited();
+    }
+
+    @Override
+    public synchronized CharSequence getTextBeforeCursor(int n, int flags) {
+        record("getTextBeforeCursor", null, true);
+        return mText.substring(Math.max(0, mSelStart - n), mSelStart);
+    }
+
+    @Override
+    public synchronized CharSequence getTextAfterCursor(int n, int flags) {
+        record("getTextAfterCursor", null, true);
+        return mText.substring(mSelEnd, Math.min(mText.length(), mSelEnd + n));
+    }
+
+    @Override
+    public synchronized CharSequence getSelectedText(int flags) {
+        record("getSelectedText", null, true);
+        return mSelStart == mSelEnd ? null : mText.substring(mSelStart, mSelEnd);
+    }
+
+    @Override
+    public synchronized int getCursorCapsMode(int reqModes) {
+        record("getCursorCapsMode", null, true);
+        return TextUtils.getCapsMode(mText, mSelStart, reqModes);
+    }
+
+    @Override
+    public synchronized ExtractedText getExtractedText(ExtractedTextRequest request, int flags) {
+        record("getExtractedText", null, true);
+        return null;
+    }
+
+    @Override
+    public synchronized boolean deleteSurroundingText(int beforeLength, int afterLength) {
+        record("deleteSurroundingText", null, false);
+        // Like BaseInputConnection, delete around the composing text.
+        int a = mSelStart;
+        int b = mSelEnd;
+        if (mComposingStart >= 0) {
+            a = Math.min(a, mComposingStart);
+            b = Math.max(b, mComposingEnd);
+        }
+        int after = Math.min(afterLength, mText.length() - b);
+        mText.delete(b, b + after);
+        int before = Math.min(beforeLength, a);
+        mText.delete(a - before, a);
+        mSelStart -= before;
+        mSelEnd -= before;
+        if (mComposingStart >= 0) {
+            mComposingStart -= before;
+            mComposingEnd -= before;
+        }
+        edited();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean setComposingText(CharSequence text, int newCursorPosition) {
+        record("setComposingText", text, false);
+        replace(text, newCursorPosition, true);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean setComposingRegion(int start, int end) {
+        record("setComposingRegion", null, false);
+        start = Math.max(0, Math.min(start, mText.length()));
+        end = Math.max(0, Math.min(end, mText.length()));
+        if (start == end) {
+            mComposingStart = mComposingEnd = -1;
+        } else {
+            mComposingStart = Math.min(start, end);
+            mComposingEnd = Math.max(start, end);
+        }
+        edited();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean finishComposingText() {
+        record("finishComposingText", null, false);
+        mComposingStart = mComposingEnd = -1;
+        edited();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean commitText(CharSequence text, int newCursorPosition) {
+        record("commitText", text, false);
+        replace(text, newCursorPosition, false);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean commitCompletion(CompletionInfo text) {
+        record("commitCompletion", text.getText(), false);
+        replace(text.getText(), 1, false);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean commitCorrection(CorrectionInfo correctionInfo) {
+        record("commitCorrection", correctionInfo.getNewText(), false);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean setSelection(int start, int end) {
+        record("setSelection", null, false);
+        mSelStart = Math.max(0, Math.min(start, mText.length()));
+        mSelEnd = Math.max(mSelStart, Math.min(end, mText.length()));
+        edited();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean performEditorAction(int editorAction) {
+        record("performEditorAction", null, false);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean performContextMenuAction(int id) {
+        record("performContextMenuAction", null, false);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean beginBatchEdit() {
+        record("beginBatchEdit", null, false);
+        mBatchDepth++;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean endBatchEdit() {
+        record("endBatchEdit", null, false);
+        if (mBatchDepth > 0) {
+            mBatchDepth--;
+            edited();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean sendKeyEvent(KeyEvent event) {
+        record("sendKeyEvent", null, false);
+        if (event.getAction() != KeyEvent.ACTION_DOWN) {
+            return true;
+        }
+        int keyCode = event.getKeyCode();
+        if (keyCode == KeyEvent.KEYCODE_DEL) {
+            if (mSelStart == mSelEnd && mSelStart > 0) {
+                mSelStart--;
+            }
+            insertAtCursor("");
+        } else if (keyCode == KeyEvent.KEYCODE_ENTER) {
+            insertAtCursor("\n");
+        } else if (keyCode >= KeyEvent.KEYCODE_0 && keyCode <= KeyEvent.KEYCODE_9) {
+            insertAtCursor(String.valueOf((char) ('0' + keyCode - KeyEvent.KEYCODE_0)));
+        } else if (event.getUnicodeChar() != 0) {
+            insertAtCursor(String.valueOf((char) event.getUnicodeChar()));
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean clearMetaKeyStates(int states) {
+        record("clearMetaKeyStates", null, false);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean reportFullscreenMode(boolean enabled) {
+        record("reportFullscreenMode", null, false);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean performPrivateCommand(String action, Bundle data) {
+        record("performPrivateCommand", null, false);
+        return false;
+    }
+
+    @Override
+    public synchronized boolean requestCursorUpdates(int cursorUpdateMode) {
+        record("requestCursorUpdates", null, false);
+        return false;
+    }
+}
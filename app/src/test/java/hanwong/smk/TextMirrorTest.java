@@ -0,0 +1,77 @@
+package hanwong.smk;
+
+import android.view.inputmethod.InputConnection;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link TextMirror} tells the editor's reports of our own
+ * edits from the user's moves, whether the editor reports a batch of
+ * edits once or every call in it.  The edits are the ones backspace makes
+ * when it goes back into the syllable before, which pass the cursor over
+ * the same place twice: 하가 with 가 composing becomes 학.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TextMirrorTest {
+
+    @Test
+    public void batchedReport() {
+        run(true);
+    }
+
+    @Test
+    public void reportPerCall() {
+        run(false);
+    }
+
+    private static void run(boolean batch) {
+        RecordingInputConnection editor = new RecordingInputConnection();
+        TextMirror mirror = new TextMirror();
+        mirror.start(editor, 0, 0);
+        InputConnection ic = mirror.wrap(editor);
+
+        if (batch) {
+            ic.beginBatchEdit();
+        }
+        ic.commitText("하", 1);
+        ic.setComposingText("가", 1);
+        if (batch) {
+            ic.endBatchEdit();
+        }
+        assertTrue("typing", deliver(editor, mirror));
+
+        if (batch) {
+            ic.beginBatchEdit();
+        }
+        ic.commitText("", 1);
+        ic.deleteSurroundingText(1, 0);
+        ic.setComposingText("학", 1);
+        if (batch) {
+            ic.endBatchEdit();
+        }
+        assertTrue("backspace", deliver(editor, mirror));
+        assertEquals("text", "학", editor.getText());
+
+        // The user taps before 학, where the backspace passed.
+        editor.setSelection(0, 0);
+        assertFalse("tap", deliver(editor, mirror));
+        assertEquals("char before the tap", 0, mirror.charBeforeCursor());
+    }
+
+    /** Hands the editor's reports to the mirror; true if all were ours. */
+    private static boolean deliver(RecordingInputConnection editor, TextMirror mirror) {
+        boolean own = true;
+        for (int[] u : editor.takeUpdates()) {
+            own &= mirror.onUpdateSelection(u[0], u[1], u[2], u[3], u[4], u[5]);
+        }
+        return own;
+    }
+}
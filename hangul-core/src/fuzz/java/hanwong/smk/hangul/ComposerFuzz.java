@@ -0,0 +1,170 @@
+package hanwong.smk.hangul;
+
+import java.util.Random;
+
+/**
+ * Differential fuzzer: types random sessions of keys and backspaces into
+ * {@link HangulComposer} and {@link ReferenceComposer} and compares the
+ * editor text after every event, taking every layout in
+ * {@link Layouts#ALL} in turn.  Stops at the first
+ * divergence, printing the session so it can be replayed, or reports
+ * throughput once the time is up.
+ *
+ * Sessions run longer than the composer's undo stack, and some end by
+ * erasing everything, so backspace also runs out of keystrokes to take
+ * back.  From there the composer removes jamo instead, which the reference
+ * does not model; those backspaces are checked against
+ * {@link ReferenceComposer#removeLastJamo} and end the session at the next
+ * key.
+ *
+ * Usage: ComposerFuzz [seconds] [seed]
+ */
+public final class ComposerFuzz {
+
+    /** Longest session, before erasing; well past the undo stack. */
+    static final int MAX_SESSION = 200;
+    static final int UNDO_DEPTH = HangulComposer.DEFAULT_UNDO_DEPTH;
+    static final char BACKSPACE = '<';
+
+    private final Random mRandom;
+    private final HangulComposer mComposer = new HangulComposer(UNDO_DEPTH);
+    private ReferenceComposer mReference;
+    private String mKeys;
+    private final StringBuilder mCommitted = new StringBuilder();
+    private final StringBuilder mText = new StringBuilder();
+    private final StringBuilder mLastText = new StringBuilder();
+    private char[] mSession = new char[MAX_SESSION];
+
+    private ComposerFuzz(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    public static void main(String[] args) {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 60;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+        System.out.println("seed " + seed + ", " + seconds + " s");
+
+        ComposerFuzz fuzz = new ComposerFuzz(seed);
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1000000000L;
+        long sessions = 0;
+        long events = 0;
+        int round = 0;
+        do {
+            fuzz.setLayout(Layouts.ALL[round++ % Layouts.ALL.length]);
+            for (int i = 0; i < 1024; i++) {
+                int length = fuzz.session();
+                if (length < 0) {
+                    System.exit(1);
+                }
+                events += length;
+            }
+            sessions += 1024;
+        } while (System.nanoTime() < deadline);
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf("ok: %d sessions, %d events in %.1f s (%.0f events/s)%n",
+                sessions, events, elapsed, events / elapsed);
+    }
+
+    private void setLayout(Layout layout) {
+        mComposer.setLayout(layout);
+        mReference = new ReferenceComposer(layout.title);
+        mKeys = mReference.keys();
+    }
+
+    /**
+     * Runs one random session.  Returns its length, or -1 after printing
+     * the divergence.
+     */
+    private int session() {
+        mComposer.reset();
+        mReference.reset();
+        mCommitted.setLength(0);
+        mText.setLength(0);
+
+        int length = 1 + mRandom.nextInt(MAX_SESSION);
+        // One session in four then erases everything it typed, and more.
+        int erase = mRandom.nextInt(4) == 0 ? length + 1 : 0;
+        if (mSession.length < length + erase) {
+            mSession = new char[length + erase];
+        }
+        // Keystrokes the composer can still take back.
+        int undoable = 0;
+        boolean fallback = false;
+        for (int i = 0; i < length + erase; i++) {
+            // About one event in six is a backspace.
+            int key = mRandom.nextInt(mKeys.length() + mKeys.length() / 5);
+            char event = i >= length || key >= mKeys.length() ? BACKSPACE
+                    : mKeys.charAt(key);
+            if (fallback && event != BACKSPACE) {
+                return i;
+            }
+            mSession[i] = event;
+            mLastText.setLength(0);
+            mLastText.append(mText);
+            char composing = mComposer.getComposingChar();
+
+            boolean handled;
+            boolean expected;
+            if (event == BACKSPACE) {
+                fallback |= undoable == 0;
+                undoable = Math.max(undoable - 1, 0);
+                handled = mComposer.backspace();
+                expected = fallback ? composing != 0 : mReference.backspace();
+                if (!handled && mCommitted.length() > 0) {
+                    mCommitted.setLength(mCommitted.length() - 1);
+                }
+            } else {
+                undoable = Math.min(undoable + 1, UNDO_DEPTH);
+                mComposer.process(mComposer.keyIndex(event, false));
+                mReference.type(event);
+                handled = expected = true;
+            }
+            mCommitted.setLength(mCommitted.length() - mComposer.getDeleteBefore());
+            mCommitted.append(mComposer.getCommitText());
+
+            mText.setLength(0);
+            mText.append(mCommitted);
+            if (mComposer.getComposingChar() != 0) {
+                mText.append(mComposer.getComposingChar());
+            }
+            CharSequence reference = fallback ? fallbackText(composing) : mReference.text();
+            if (handled != expected || !contentEquals(mText, reference)) {
+                System.out.println("divergence on " + mComposer.getLayout() + " after "
+                        + new String(mSession, 0, i + 1));
+                System.out.println("  composer:  " + mText + (handled ? "" : " (unhandled)"));
+                System.out.println("  reference: " + reference + (expected ? "" : " (unhandled)"));
+                return -1;
+            }
+        }
+        return length + erase;
+    }
+
+    /**
+     * The text a backspace past the undo stack should leave: the composing
+     * character with its last jamo removed, or else one character less.
+     */
+    private CharSequence fallbackText(char composing) {
+        if (mLastText.length() > 0) {
+            mLastText.setLength(mLastText.length() - 1);
+        }
+        char rest = ReferenceComposer.removeLastJamo(composing);
+        if (composing != 0 && rest != 0) {
+            mLastText.append(rest);
+        }
+        return mLastText;
+    }
+
+    private static boolean contentEquals(CharSequence a, CharSequence b) {
+        if (a.length() != b.length()) {
+            return false;
+        }
+        for (int i = 0; i < a.length(); i++) {
+            if (a.charAt(i) != b.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
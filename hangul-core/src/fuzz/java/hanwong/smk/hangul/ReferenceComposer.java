@@ -0,0 +1,290 @@
+package hanwong.smk.hangul;
+
+/**
+ * A deliberately naive composer to check {@link HangulComposer} against,
+ * for the 2-beolsik and 3-beolsik layouts.  It shares no code or tables
+ * with the real one: it keeps the typed keys, re-syllabifies all of them
+ * after every key and builds syllables with the Unicode Hangul algorithm
+ * (U+AC00 + (초성 * 21 + 중성) * 28 + 종성).  Backspace simply forgets the
+ * last key.  Slow, but short enough to check by eye.
+ */
+final class ReferenceComposer {
+
+    // 2-beolsik layout, a..z and A..Z.
+    private static final String TWO_SET_KEYS =
+            "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    private static final String TWO_SET_JAMO =
+            "ㅁㅠㅊㅇㄷㄹㅎㅗㅑㅓㅏㅣㅡㅜㅐㅔㅂㄱㄴㅅㅕㅍㅈㅌㅛㅋ"
+            + "ㅁㅠㅊㅇㄸㄹㅎㅗㅑㅓㅏㅣㅡㅜㅒㅖㅃㄲㄴㅆㅕㅍㅉㅌㅛㅋ";
+
+    // 3-beolsik layouts: the Hangul keys, their jamo and whether each is a
+    // 초성 (c), 중성 (v) or 종성 (f) key.  3-beolsik-final adds 종성 on
+    // the shifted number row.
+    private static final String THREE_SET_KEYS =
+            "1234567890qwertyuiopasdfghjkl;'zxcvbnm/QWERASDFZXCV";
+    private static final String THREE_SET_JAMO =
+            "ㅎㅆㅂㅛㅠㅑㅖㅢㅜㅋㅅㄹㅕㅐㅓㄹㄷㅁㅊㅍㅇㄴㅣㅏㅡㄴㅇㄱㅈㅂㅌㅁㄱㅔㅗㅜㅅㅎㅗ"
+            + "ㅍㅌㄵㅒㄷㄶㄺㄲㅊㅄㅋㅀ";
+    private static final String THREE_SET_PLACES =
+            "fffvvvvvvcffvvvcccccffvvvccccccffvvvccvfffvffffffff";
+    private static final String FINAL_KEYS = "!@#$%";
+    private static final String FINAL_JAMO = "ㄲㄺㅈㄿㄾ";
+    private static final String FINAL_PLACES = "fffff";
+
+    // Unicode 초성 and 종성 orders; 종성 0 is "none".
+    private static final String CHOSUNG = "ㄱㄲㄴㄷㄸㄹㅁㅂㅃㅅㅆㅇㅈㅉㅊㅋㅌㅍㅎ";
+    private static final String JONGSUNG = "\0ㄱㄲㄳㄴㄵㄶㄷㄹㄺㄻㄼㄽㄾㄿㅀㅁㅂㅄㅅㅆㅇㅈㅊㅋㅌㅍㅎ";
+
+    // What the layouts combine: first, second, result.
+    private static final String[] CLUSTERS = {
+            "ㄱㅅㄳ", "ㄴㅈㄵ", "ㄴㅎㄶ", "ㄹㄱㄺ", "ㄹㅁㄻ", "ㄹㅂㄼ", "ㄹㅅㄽ",
+            "ㄹㅌㄾ", "ㄹㅍㄿ", "ㄹㅎㅀ", "ㅂㅅㅄ",
+    };
+    private static final String[] TWO_SET_VOWELS = {
+            "ㅗㅏㅘ", "ㅗㅐㅙ", "ㅗㅣㅚ", "ㅗㅗㅛ", "ㅘㅣㅙ", "ㅜㅓㅝ", "ㅜㅔㅞ",
+            "ㅜㅣㅟ", "ㅜㅜㅠ", "ㅝㅣㅞ", "ㅡㅣㅢ", "ㅏㅏㅑ", "ㅏㅣㅐ", "ㅑㅣㅒ",
+            "ㅓㅣㅔ", "ㅓㅓㅕ", "ㅕㅣㅖ",
+    };
+    private static final String[] THREE_SET_CHOSUNG = {
+            "ㄱㄱㄲ", "ㄷㄷㄸ", "ㅂㅂㅃ", "ㅅㅅㅆ", "ㅈㅈㅉ",
+    };
+    private static final String[] THREE_SET_VOWELS = {
+            "ㅗㅏㅘ", "ㅗㅐㅙ", "ㅗㅣㅚ", "ㅜㅓㅝ", "ㅜㅔㅞ", "ㅜㅣㅟ", "ㅡㅣㅢ",
+    };
+    private static final String[] THREE_SET_JONGSUNG = {
+            "ㄱㅅㄳ", "ㄴㅈㄵ", "ㄴㅎㄶ", "ㄹㄱㄺ", "ㄹㅁㄻ", "ㄹㅂㄼ", "ㄹㅅㄽ",
+            "ㄹㅌㄾ", "ㄹㅍㄿ", "ㄹㅎㅀ", "ㅂㅅㅄ", "ㄱㄱㄲ", "ㅅㅅㅆ",
+    };
+
+    private final String mLayoutKeys;
+    private final String mJamo;
+    // Per key, c, v or f for a 3-beolsik key, null for 2-beolsik.
+    private final String mPlaces;
+    private final String[] mChosungPairs;
+    private final String[] mVowelPairs;
+    private final String[] mJongsungPairs;
+
+    private final StringBuilder mKeys = new StringBuilder();
+    private final StringBuilder mText = new StringBuilder();
+    private char mCho, mJung, mJong;
+
+    /**
+     * @param title title of the layout to follow, e.g. "2-beolsik"
+     */
+    ReferenceComposer(String title) {
+        if (title.equals("2-beolsik")) {
+            mLayoutKeys = TWO_SET_KEYS;
+            mJamo = TWO_SET_JAMO;
+            mPlaces = null;
+            mChosungPairs = CLUSTERS;
+            mVowelPairs = TWO_SET_VOWELS;
+            mJongsungPairs = CLUSTERS;
+        } else if (title.equals("3-beolsik-final") || title.equals("3-beolsik-390")) {
+            boolean numberRow = title.equals("3-beolsik-final");
+            mLayoutKeys = THREE_SET_KEYS + (numberRow ? FINAL_KEYS : "");
+            mJamo = THREE_SET_JAMO + (numberRow ? FINAL_JAMO : "");
+            mPlaces = THREE_SET_PLACES + (numberRow ? FINAL_PLACES : "");
+            mChosungPairs = THREE_SET_CHOSUNG;
+            mVowelPairs = THREE_SET_VOWELS;
+            mJongsungPairs = THREE_SET_JONGSUNG;
+        } else {
+            throw new IllegalArgumentException("no reference for " + title);
+        }
+    }
+
+    /** The Latin keys that type Hangul on the layout. */
+    String keys() {
+        return mLayoutKeys;
+    }
+
+    /** Types a Latin key of the layout. */
+    void type(char latin) {
+        mKeys.append(latin);
+    }
+
+    /** Returns false if there was nothing to take back. */
+    boolean backspace() {
+        if (mKeys.length() == 0) {
+            return false;
+        }
+        mKeys.setLength(mKeys.length() - 1);
+        return true;
+    }
+
+    void reset() {
+        mKeys.setLength(0);
+    }
+
+    /** Everything typed so far, the composing syllable included. */
+    CharSequence text() {
+        mText.setLength(0);
+        mCho = mJung = mJong = 0;
+        for (int i = 0; i < mKeys.length(); i++) {
+            int key = mLayoutKeys.indexOf(mKeys.charAt(i));
+            char jamo = mJamo.charAt(key);
+            char place = mPlaces != null ? mPlaces.charAt(key) : 0;
+            if (place == 'c') {
+                chosung(jamo);
+            } else if (place == 'v') {
+                vowelKey(jamo);
+            } else if (place == 'f') {
+                jongsung(jamo);
+            } else if (jamo < 'ㅏ') {
+                consonant(jamo);
+            } else {
+                vowel(jamo);
+            }
+        }
+        flush();
+        return mText;
+    }
+
+    /**
+     * The composing character once backspace has no keystrokes left to
+     * take back: a 종성 cluster loses its second half, any other 종성 or a
+     * 중성 goes whole, and a lone cluster loses its second half.  0 if
+     * nothing is left.
+     */
+    static char removeLastJamo(char c) {
+        if (c < 0xAC00 || c > 0xD7A3) {
+            return part(c, 0);
+        }
+        int jong = (c - 0xAC00) % 28;
+        if (jong == 0) {
+            return CHOSUNG.charAt((c - 0xAC00) / 28 / 21);
+        }
+        char first = part(JONGSUNG.charAt(jong), 0);
+        return (char) (c - jong + (first == 0 ? 0 : JONGSUNG.indexOf(first)));
+    }
+
+    // 2-beolsik: the automaton decides where a jamo goes.
+
+    private void consonant(char c) {
+        if (mCho != 0 && mJung == 0) {
+            char cluster = combine(mChosungPairs, mCho, c);
+            if (cluster != 0) {
+                mCho = cluster;
+                return;
+            }
+        } else if (mCho != 0 && mJung != 0 && mJong == 0) {
+            if (JONGSUNG.indexOf(c) > 0) {
+                mJong = c;
+                return;
+            }
+        } else if (mJong != 0) {
+            char cluster = combine(mJongsungPairs, mJong, c);
+            if (cluster != 0) {
+                mJong = cluster;
+                return;
+            }
+        }
+        flush();
+        mCho = c;
+    }
+
+    private void vowel(char v) {
+        if (mJung != 0 && mJong == 0) {
+            char compound = combine(mVowelPairs, mJung, v);
+            if (compound != 0) {
+                mJung = compound;
+                return;
+            }
+            flush();
+        } else if (mJong != 0) {
+            // The last consonant of the syllable starts the next one.
+            char first = part(mJong, 0);
+            char next = first == 0 ? mJong : part(mJong, 1);
+            mJong = first;
+            flush();
+            mCho = next;
+        } else if (mCho != 0 && part(mCho, 0) != 0) {
+            char next = part(mCho, 1);
+            mCho = part(mCho, 0);
+            flush();
+            mCho = next;
+        }
+        mJung = v;
+    }
+
+    // 3-beolsik: the key decides, and a syllable never gives a jamo away.
+
+    private void chosung(char c) {
+        if (mCho != 0 && mJung == 0) {
+            char doubled = combine(mChosungPairs, mCho, c);
+            if (doubled != 0) {
+                mCho = doubled;
+                return;
+            }
+        }
+        flush();
+        mCho = c;
+    }
+
+    private void vowelKey(char v) {
+        if (mCho != 0 && mJung == 0) {
+            mJung = v;
+            return;
+        }
+        if (mJung != 0 && mJong == 0) {
+            char compound = combine(mVowelPairs, mJung, v);
+            if (compound != 0) {
+                mJung = compound;
+                return;
+            }
+        }
+        flush();
+        mJung = v;
+    }
+
+    private void jongsung(char c) {
+        if (mCho != 0 && mJung != 0 && mJong == 0) {
+            mJong = c;
+            return;
+        }
+        if (mJong != 0) {
+            char cluster = combine(mJongsungPairs, mJong, c);
+            if (cluster != 0) {
+                mJong = cluster;
+                return;
+            }
+        }
+        // Stands alone until the next key.
+        flush();
+        mJong = c;
+    }
+
+    private void flush() {
+        if (mJung == 0) {
+            if (mCho != 0) {
+                mText.append(mCho);
+            } else if (mJong != 0) {
+                mText.append(mJong);
+            }
+        } else if (mCho == 0) {
+            mText.append(mJung);
+        } else {
+            mText.append((char) (0xAC00 + (CHOSUNG.indexOf(mCho) * 21 + (mJung - 'ㅏ')) * 28
+                    + JONGSUNG.indexOf(mJong == 0 ? '\0' : mJong)));
+        }
+        mCho = mJung = mJong = 0;
+    }
+
+    private static char combine(String[] pairs, char first, char second) {
+        for (String pair : pairs) {
+            if (pair.charAt(0) == first && pair.charAt(1) == second) {
+                return pair.charAt(2);
+            }
+        }
+        return 0;
+    }
+
+    /** Part 0 or 1 of a consonant cluster, 0 if it is not one. */
+    private static char part(char cluster, int which) {
+        for (String pair : CLUSTERS) {
+            if (pair.charAt(2) == cluster) {
+                return pair.charAt(which);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,60 @@
+package hanwong.smk.hangul;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keystroke throughput of {@link CheonjiinComposer}, to compare with
+ * {@link ComposerBenchmark}'s plain stream.  One operation is one key.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CheonjiinBenchmark {
+
+    private int[] mKeys;
+    private CheonjiinComposer mComposer;
+
+    @Setup
+    public void setUp() {
+        mKeys = KeyStreams.cheonjiin();
+        mComposer = new CheonjiinComposer();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(KeyStreams.STREAM_LENGTH)
+    public int nanosPerKeystroke() {
+        return type(mComposer, mKeys);
+    }
+
+    static int type(CheonjiinComposer composer, int[] keys) {
+        int sink = 0;
+        composer.reset();
+        for (int i = 0; i < keys.length; i++) {
+            int key = keys[i];
+            if (key == KeyStreams.TIMEOUT) {
+                composer.timeoutExpired();
+            } else if (key == KeyStreams.SEPARATOR) {
+                composer.reset();
+            } else {
+                composer.process(key);
+            }
+            sink += composer.getComposingText().length() + composer.getCommitText().length();
+        }
+        return sink;
+    }
+}
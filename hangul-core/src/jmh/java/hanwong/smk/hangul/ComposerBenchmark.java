@@ -0,0 +1,94 @@
+package hanwong.smk.hangul;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keystroke-to-syllable throughput of {@link HangulComposer}.  One
+ * operation is one keystroke, so the throughput mode reports keystrokes
+ * per second and the average time mode nanoseconds per keystroke.  Run
+ * with {@code gradle :hangul-core:jmh}, which adds the GC profiler; its
+ * {@code gc.alloc.rate.norm} line is the bytes allocated per keystroke.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ComposerBenchmark {
+
+    @Param({"plain", "doubleFinal", "backspaceHeavy"})
+    public String stream;
+
+    /** Title of one of the {@link Layouts}. */
+    @Param({"2-beolsik", "3-beolsik-final"})
+    public String layout;
+
+    private int[] mKeys;
+    private HangulComposer mComposer;
+
+    @Setup
+    public void setUp() {
+        mComposer = new HangulComposer();
+        for (Layout l : Layouts.ALL) {
+            if (l.title.equals(layout)) {
+                mComposer.setLayout(l);
+            }
+        }
+        if ("plain".equals(stream)) {
+            mKeys = KeyStreams.plain(mComposer.getLayout());
+        } else if ("doubleFinal".equals(stream)) {
+            mKeys = KeyStreams.doubleFinal(mComposer.getLayout());
+        } else {
+            mKeys = KeyStreams.backspaceHeavy(mComposer.getLayout());
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(KeyStreams.STREAM_LENGTH)
+    public int keystrokes() {
+        return type(mComposer, mKeys);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(KeyStreams.STREAM_LENGTH)
+    public int nanosPerKeystroke() {
+        return type(mComposer, mKeys);
+    }
+
+    /**
+     * Drives the composer the way SoftKeyboard.handleHangul does and folds
+     * its output into the return value so that nothing is dead code.
+     */
+    static int type(HangulComposer composer, int[] keys) {
+        int sink = 0;
+        composer.reset();
+        for (int i = 0; i < keys.length; i++) {
+            int key = keys[i];
+            if (key == KeyStreams.BACKSPACE) {
+                composer.backspace();
+            } else if (key == KeyStreams.SEPARATOR) {
+                composer.reset();
+            } else {
+                composer.process(composer.keyIndex(key, false));
+            }
+            sink += composer.getComposingChar() + composer.getCommitText().length();
+        }
+        return sink;
+    }
+}
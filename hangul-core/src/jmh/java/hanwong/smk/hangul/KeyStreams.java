@@ -0,0 +1,252 @@
+package hanwong.smk.hangul;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Builds key streams for the benchmarks by typing Korean text on one of
+ * the {@link Layouts}, on the Cheonjiin layout (sejong.xml) or as
+ * romanized letters.  A stream holds key codes as the soft keyboard
+ * would send them, plus {@link #BACKSPACE}, {@link #SEPARATOR} and
+ * {@link #TIMEOUT} markers.
+ */
+final class KeyStreams {
+
+    static final int BACKSPACE = -1;
+    static final int SEPARATOR = -2;
+    /** The Cheonjiin multi-tap timeout passes. */
+    static final int TIMEOUT = -3;
+
+    /** Every stream is repeated or cut to this many keystrokes. */
+    static final int STREAM_LENGTH = 4096;
+
+    /** Everyday sentences: mostly plain CV and CVC syllables. */
+    static final String PLAIN_TEXT =
+            "안녕하세요 오늘 날씨가 정말 좋네요 저는 학교에 가서 친구를 만날 거예요 "
+            + "점심은 김치찌개를 먹고 저녁에는 영화를 볼 생각입니다 "
+            + "한국어 자판으로 빠르게 입력하는 연습을 하고 있어요";
+
+    /**
+     * Words whose first syllable ends in a consonant that forms a cluster
+     * with the next 초성, so the cluster is built and then split again when
+     * the vowel arrives (H_STATE_6 -> H_STATE_4).
+     */
+    static final String DOUBLE_FINAL_TEXT =
+            "일기 알고 달걀 얼굴 물고기 얼마 할머니 열매 갈비 일본 물수건 알사탕 "
+            + "안주 반지 전화 만화 문화 밥솥 집시 학생 국수 닭 값 삶 앉다 읽어";
+
+    // Key codes that need no shift, so they are preferred where both type a key.
+    private final static String UNSHIFTED = "`1234567890-=qwertyuiop[]\\asdfghjkl;'zxcvbnm,./";
+
+    // Cheonjiin consonant keys from code 65 on, each with its jamo in tap order.
+    private final static String[] CHEONJIIN_CONSONANTS =
+            {"ㄱㅋㄲ", "ㄴ", "ㄷㅌㄸ", "ㄹ", "ㅁ", "ㅂㅍㅃ", "ㅅㅆ", "ㅇㅎ", "ㅈㅊㅉ"};
+    // Cheonjiin strokes for ㅏ..ㅣ: J is ㅣ, K is ㆍ, L is ㅡ.
+    private final static String[] CHEONJIIN_VOWELS = {
+            "JK", "JKJ", "JKK", "JKKJ", "KJ", "KJJ", "KKJ", "KKJJ", "KL", "KLJK", "KLJKJ",
+            "KLJ", "KKL", "LK", "LKKJ", "LKKJJ", "LKJ", "LKK", "L", "LJ", "J"};
+
+    /** The plain text as romanized Korean, for the Latin keyboard. */
+    static final String ROMANIZED_TEXT =
+            "annyeonghaseyo oneul nalssiga jeongmal jonneyo jeoneun hakgyoe gaseo "
+            + "chingureul mannal geoyeyo jeomsimeun gimchijjigaereul meokgo "
+            + "jeonyeogeneun yeonghwareul bol saenggagimnida "
+            + "hangugeo japaneuro ppareuge imnyeokaneun yeonseubeul hago isseoyo";
+
+    private KeyStreams() {
+    }
+
+    /**
+     * The romanized text as letter keys, with a {@link #SEPARATOR} for
+     * every space.
+     */
+    static int[] romanized() {
+        int[] out = new int[ROMANIZED_TEXT.length()];
+        for (int i = 0; i < out.length; i++) {
+            char c = ROMANIZED_TEXT.charAt(i);
+            out[i] = c == ' ' ? SEPARATOR : c;
+        }
+        return fit(out);
+    }
+
+    /**
+     * The plain text typed on the Cheonjiin layout, with a timeout between
+     * taps on the same consonant key that are meant as separate jamo.
+     */
+    static int[] cheonjiin() {
+        int[] out = new int[PLAIN_TEXT.length() * 16];
+        int n = 0;
+        int last = 0;
+        for (int i = 0; i < PLAIN_TEXT.length(); i++) {
+            int packed = HangulSyllables.decompose(PLAIN_TEXT.charAt(i));
+            if (packed == 0) {
+                out[n++] = SEPARATOR;
+                last = 0;
+                continue;
+            }
+            int[] jamo = {HangulSyllables.cho(packed), HangulSyllables.jung(packed),
+                    HangulSyllables.jong(packed)};
+            for (int j : jamo) {
+                if (j < 0) {
+                    continue;
+                }
+                if (j >= HangulComposer.JUNGSUNG_BASE) {
+                    String strokes = CHEONJIIN_VOWELS[j - HangulComposer.JUNGSUNG_BASE];
+                    for (int k = 0; k < strokes.length(); k++) {
+                        out[n++] = strokes.charAt(k) - 'J' + 74;
+                    }
+                    last = 0;
+                } else if (HangulSyllables.secondPart(j) >= 0) {
+                    n = typeCheonjiinConsonant(HangulSyllables.firstPart(j), out, n, last);
+                    last = out[n - 1];
+                    n = typeCheonjiinConsonant(HangulSyllables.secondPart(j), out, n, last);
+                    last = out[n - 1];
+                } else {
+                    n = typeCheonjiinConsonant(j, out, n, last);
+                    last = out[n - 1];
+                }
+            }
+        }
+        return fit(Arrays.copyOf(out, n));
+    }
+
+    private static int typeCheonjiinConsonant(int jamo, int[] keys, int n, int lastKey) {
+        char c = (char) (HangulSyllables.JAMO_FIRST + jamo);
+        for (int key = 0; key < CHEONJIIN_CONSONANTS.length; key++) {
+            int taps = CHEONJIIN_CONSONANTS[key].indexOf(c) + 1;
+            if (taps > 0) {
+                if (lastKey == 65 + key) {
+                    keys[n++] = TIMEOUT;
+                }
+                for (int t = 0; t < taps; t++) {
+                    keys[n++] = 65 + key;
+                }
+                return n;
+            }
+        }
+        throw new IllegalArgumentException("cannot type jamo " + jamo);
+    }
+
+    static int[] plain(Layout layout) {
+        return fit(type(layout, PLAIN_TEXT, null));
+    }
+
+    static int[] doubleFinal(Layout layout) {
+        return fit(type(layout, DOUBLE_FINAL_TEXT, null));
+    }
+
+    /**
+     * The plain text typed with corrections: after most syllables a few
+     * keys are deleted and typed again, and now and then a wrong key is
+     * typed and removed.
+     */
+    static int[] backspaceHeavy(Layout layout) {
+        return fit(type(layout, PLAIN_TEXT, new Random(42)));
+    }
+
+    /**
+     * [key index] -> the key code that types it on the layout, or 0.
+     */
+    private static char[] codes(Layout layout) {
+        char[] codes = new char[Automaton.NUM_KEYS];
+        for (char code = 0x7E; code >= Automaton.KEYMAP_FIRST; code--) {
+            int key = layout.keyIndex(code, false);
+            if (key >= 0) {
+                codes[key] = code;
+            }
+        }
+        for (int i = UNSHIFTED.length() - 1; i >= 0; i--) {
+            int key = layout.keyIndex(UNSHIFTED.charAt(i), false);
+            if (key >= 0) {
+                codes[key] = UNSHIFTED.charAt(i);
+            }
+        }
+        return codes;
+    }
+
+    private static int[] type(Layout layout, String text, Random typos) {
+        char[] codes = codes(layout);
+        int[] out = new int[16];
+        int[] syllable = new int[8];
+        int n = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int len = typeChar(layout, codes, text.charAt(i), syllable);
+            if (out.length < n + len * 3 + 2) {
+                out = Arrays.copyOf(out, out.length * 2 + len * 3 + 2);
+            }
+            System.arraycopy(syllable, 0, out, n, len);
+            n += len;
+            if (typos != null && len > 0 && syllable[0] != SEPARATOR) {
+                if (typos.nextInt(4) == 0) {
+                    out[n++] = 'a' + typos.nextInt(26);
+                    out[n++] = BACKSPACE;
+                }
+                int redo = typos.nextInt(Math.min(len, 3) + 1);
+                for (int j = 0; j < redo; j++) {
+                    out[n++] = BACKSPACE;
+                }
+                System.arraycopy(syllable, len - redo, out, n, redo);
+                n += redo;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Writes the keys that type one character and returns how many there are.
+     */
+    private static int typeChar(Layout layout, char[] codes, char c, int[] keys) {
+        int packed = HangulSyllables.decompose(c);
+        if (packed == 0) {
+            keys[0] = SEPARATOR;
+            return 1;
+        }
+        int n = 0;
+        if (HangulSyllables.cho(packed) >= 0) {
+            n = typeJamo(layout, codes, Automaton.ROLE_CHO, HangulSyllables.cho(packed), keys, n);
+        }
+        if (HangulSyllables.jung(packed) >= 0) {
+            n = typeJamo(layout, codes, Automaton.ROLE_JUNG, HangulSyllables.jung(packed), keys, n);
+        }
+        if (HangulSyllables.jong(packed) >= 0) {
+            n = typeJamo(layout, codes, Automaton.ROLE_JONG, HangulSyllables.jong(packed), keys, n);
+        }
+        return n;
+    }
+
+    /**
+     * Types a jamo in the given position, with a 2-beolsik key or with a
+     * 3-beolsik key for that position.
+     */
+    private static int typeJamo(Layout layout, char[] codes, int role, int jamo, int[] keys,
+            int n) {
+        for (int key : new int[] {jamo, role * Automaton.NUM_JAMO + jamo}) {
+            if (codes[key] != 0) {
+                keys[n++] = codes[key];
+                return n;
+            }
+        }
+        // Not on the layout: type it as the pair of keys that combines into it.
+        for (int first = 0; first < Automaton.NUM_JAMO; first++) {
+            for (int second : new int[] {0, role * Automaton.NUM_JAMO}) {
+                for (int j = 0; j < Automaton.NUM_JAMO; j++) {
+                    if (layout.combine[first * Automaton.NUM_KEYS + second + j] == jamo
+                            && codes[second + j] != 0) {
+                        n = typeJamo(layout, codes, role, first, keys, n);
+                        keys[n++] = codes[second + j];
+                        return n;
+                    }
+                }
+            }
+        }
+        throw new IllegalArgumentException("cannot type jamo " + jamo);
+    }
+
+    private static int[] fit(int[] keys) {
+        int[] out = new int[STREAM_LENGTH];
+        for (int i = 0; i < STREAM_LENGTH; i++) {
+            out[i] = keys[i % keys.length];
+        }
+        return out;
+    }
+}
@@ -0,0 +1,310 @@
+package hanwong.smk.hangul;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Build-time compiler from layout descriptions (src/main/layouts/*.layout)
+ * to the dense tables {@link HangulComposer} runs on.  Writes one Java
+ * source, Layouts.java, with a {@link Layout} constant per description.
+ *
+ * A description is a list of lines; # starts a comment line:
+ *
+ *   name  TWO_SET              Java constant name
+ *   title 2-beolsik            shown to the user
+ *   key   a ㅁ                 2-beolsik key: the automaton places the jamo
+ *   key   k cho ㄱ             3-beolsik key: always a 초성 (or jung, jong)
+ *   key   N 0                  a non-Hangul key typing another character
+ *   combine ㄱ ㅅ ㄳ           ㄱ followed by the ㅅ key combines into ㄳ
+ *   combine jong ㄱ ㅅ ㄳ      ... followed by the 종성 ㅅ key
+ *
+ * Characters are written as themselves, or as U+XXXX.  Jamo are the
+ * compatibility jamo (U+3131..U+3163).
+ *
+ * Usage: LayoutCompiler <layout dir> <output Layouts.java>
+ */
+public final class LayoutCompiler {
+
+    private final static int A = Automaton.NUM_KEYS;
+
+    // Consonants that can be a 초성, a 종성, and the 종성 clusters.
+    private final static String CHOSUNG = "ㄱㄲㄴㄷㄸㄹㅁㅂㅃㅅㅆㅇㅈㅉㅊㅋㅌㅍㅎ";
+    private final static String JONGSUNG = "ㄱㄲㄳㄴㄵㄶㄷㄹㄺㄻㄼㄽㄾㄿㅀㅁㅂㅄㅅㅆㅇㅈㅊㅋㅌㅍㅎ";
+    private final static String CLUSTERS = "ㄳㄵㄶㄺㄻㄼㄽㄾㄿㅀㅄ";
+
+    private String mName;
+    private String mTitle;
+    private final char[] mKeyMap = new char[Automaton.KEYMAP_SIZE];
+    private final byte[] mCombine = new byte[Automaton.NUM_JAMO * A];
+    private final short[] mTransitions = new short[Automaton.NUM_STATES * A];
+
+    private LayoutCompiler() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        File[] files = new File(args[0]).listFiles();
+        Arrays.sort(files);
+        List<LayoutCompiler> layouts = new ArrayList<LayoutCompiler>();
+        for (File file : files) {
+            if (file.getName().endsWith(".layout")) {
+                LayoutCompiler layout = new LayoutCompiler();
+                layout.parse(file);
+                layout.buildTransitions();
+                layouts.add(layout);
+            }
+        }
+
+        File out = new File(args[1]);
+        out.getParentFile().mkdirs();
+        Writer w = new OutputStreamWriter(new FileOutputStream(out), "UTF-8");
+        try {
+            w.write("// Generated by LayoutCompiler from src/main/layouts.  Do not edit.\n"
+                    + "package hanwong.smk.hangul;\n\n"
+                    + "public final class Layouts {\n\n");
+            for (LayoutCompiler layout : layouts) {
+                w.write("    public static final Layout " + layout.mName + " = new Layout(\""
+                        + layout.mTitle + "\",\n            "
+                        + literal(layout.mKeyMap) + ",\n            "
+                        + literal(layout.mCombine) + ",\n            "
+                        + literal(layout.mTransitions) + ");\n\n");
+            }
+            w.write("    /** Every layout, in the order the user cycles through them. */\n"
+                    + "    public static final Layout[] ALL = {");
+            for (int i = 0; i < layouts.size(); i++) {
+                w.write((i > 0 ? ", " : "") + layouts.get(i).mName);
+            }
+            w.write("};\n\n    private Layouts() {\n    }\n}\n");
+        } finally {
+            w.close();
+        }
+    }
+
+    private void parse(File file) throws IOException {
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            int lineNumber = 0;
+            for (String line; (line = in.readLine()) != null; ) {
+                lineNumber++;
+                String[] t = line.trim().split("\\s+");
+                if (t[0].length() == 0 || t[0].startsWith("#")) {
+                    continue;
+                }
+                try {
+                    parseLine(t);
+                } catch (RuntimeException e) {
+                    throw new IOException(file + ":" + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        if (mName == null || mTitle == null) {
+            throw new IOException(file + ": name and title are required");
+        }
+    }
+
+    private void parseLine(String[] t) {
+        if (t[0].equals("name")) {
+            mName = t[1];
+        } else if (t[0].equals("title")) {
+            mTitle = t[1];
+        } else if (t[0].equals("key")) {
+            char code = character(t[1]);
+            int i = code - Automaton.KEYMAP_FIRST;
+            if (i < 0 || i >= mKeyMap.length || mKeyMap[i] != 0) {
+                throw new IllegalArgumentException("bad or repeated key " + t[1]);
+            }
+            if (t.length > 3) {
+                mKeyMap[i] = (char) (Automaton.KEY_FLAG | keyIndex(role(t[2]), t[3]));
+            } else if (isJamo(character(t[2]))) {
+                mKeyMap[i] = (char) (Automaton.KEY_FLAG | keyIndex(Automaton.ROLE_AUTO, t[2]));
+            } else if (character(t[2]) < Automaton.KEY_FLAG) {
+                mKeyMap[i] = character(t[2]);
+            } else {
+                throw new IllegalArgumentException("cannot type " + t[2]);
+            }
+        } else if (t[0].equals("combine")) {
+            int role = t.length > 4 ? role(t[1]) : Automaton.ROLE_AUTO;
+            int first = keyIndex(role, t[t.length - 3]) % Automaton.NUM_JAMO;
+            int second = keyIndex(role, t[t.length - 2]);
+            int result = keyIndex(role, t[t.length - 1]) % Automaton.NUM_JAMO;
+            if ((first < Automaton.JUNGSUNG_BASE) != (result < Automaton.JUNGSUNG_BASE)) {
+                throw new IllegalArgumentException("bad combination");
+            }
+            mCombine[first * A + second] = (byte) result;
+        } else {
+            throw new IllegalArgumentException("unknown directive " + t[0]);
+        }
+    }
+
+    private static char character(String token) {
+        if (token.startsWith("U+") && token.length() > 2) {
+            return (char) Integer.parseInt(token.substring(2), 16);
+        } else if (token.length() == 1) {
+            return token.charAt(0);
+        }
+        throw new IllegalArgumentException("bad character " + token);
+    }
+
+    private static boolean isJamo(char c) {
+        return c >= 0x3131 && c < 0x3131 + Automaton.NUM_JAMO;
+    }
+
+    private static int role(String token) {
+        if (token.equals("cho")) {
+            return Automaton.ROLE_CHO;
+        } else if (token.equals("jung")) {
+            return Automaton.ROLE_JUNG;
+        } else if (token.equals("jong")) {
+            return Automaton.ROLE_JONG;
+        }
+        throw new IllegalArgumentException("bad role " + token);
+    }
+
+    /**
+     * The key index that types a jamo in the given role.
+     */
+    private int keyIndex(int role, String token) {
+        char c = character(token);
+        if (!isJamo(c)
+                || (role == Automaton.ROLE_CHO && CHOSUNG.indexOf(c) < 0)
+                || (role == Automaton.ROLE_JUNG && c - 0x3131 < Automaton.JUNGSUNG_BASE)
+                || (role == Automaton.ROLE_JONG && JONGSUNG.indexOf(c) < 0)) {
+            throw new IllegalArgumentException("bad jamo " + token);
+        }
+        return role * Automaton.NUM_JAMO + c - 0x3131;
+    }
+
+    private void set(int state, int key, int action, int next) {
+        set(state, key, action, next, action, next);
+    }
+
+    private void set(int state, int key, int action, int next, int combinedAction,
+            int combinedNext) {
+        mTransitions[state * A + key] =
+                Automaton.transition(action, next, combinedAction, combinedNext);
+    }
+
+    private void buildTransitions() {
+        for (int jamo = 0; jamo < Automaton.NUM_JAMO; jamo++) {
+            boolean vowel = jamo >= Automaton.JUNGSUNG_BASE;
+            char compat = (char) (0x3131 + jamo);
+            buildAuto(Automaton.ROLE_AUTO * Automaton.NUM_JAMO + jamo, vowel,
+                    JONGSUNG.indexOf(compat) >= 0);
+            buildCho(Automaton.ROLE_CHO * Automaton.NUM_JAMO + jamo);
+            buildJung(Automaton.ROLE_JUNG * Automaton.NUM_JAMO + jamo);
+            buildJong(Automaton.ROLE_JONG * Automaton.NUM_JAMO + jamo,
+                    CLUSTERS.indexOf(compat) >= 0);
+        }
+    }
+
+    /** 2-beolsik: 종성 move on to the next syllable when a vowel follows. */
+    private void buildAuto(int key, boolean vowel, boolean canBeJong) {
+        if (!vowel) {
+            set(Automaton.H_STATE_0, key, Automaton.A_NEW_CHO, Automaton.H_STATE_1);
+            set(Automaton.H_STATE_1, key, Automaton.A_NEW_CHO, Automaton.H_STATE_1,
+                    Automaton.A_COMBINE_CHO, Automaton.H_STATE_2);
+            set(Automaton.H_STATE_2, key, Automaton.A_NEW_CHO, Automaton.H_STATE_1);
+            set(Automaton.H_STATE_3, key, Automaton.A_NEW_CHO, Automaton.H_STATE_1);
+            if (canBeJong) {
+                set(Automaton.H_STATE_4, key, Automaton.A_SET_JONG, Automaton.H_STATE_5);
+            } else { // if 종성 is not valid ex, 라 + ㅉ
+                set(Automaton.H_STATE_4, key, Automaton.A_NEW_CHO, Automaton.H_STATE_1);
+            }
+            set(Automaton.H_STATE_5, key, Automaton.A_NEW_CHO, Automaton.H_STATE_1,
+                    Automaton.A_COMBINE_JONG, Automaton.H_STATE_6);
+            set(Automaton.H_STATE_6, key, Automaton.A_NEW_CHO, Automaton.H_STATE_1);
+            set(Automaton.H_STATE_7, key, Automaton.A_NEW_CHO, Automaton.H_STATE_1);
+        } else {
+            set(Automaton.H_STATE_0, key, Automaton.A_NEW_JUNG, Automaton.H_STATE_3);
+            set(Automaton.H_STATE_1, key, Automaton.A_SET_JUNG, Automaton.H_STATE_4);
+            set(Automaton.H_STATE_2, key, Automaton.A_SPLIT_CHO, Automaton.H_STATE_4);
+            set(Automaton.H_STATE_3, key, Automaton.A_NEW_JUNG, Automaton.H_STATE_3,
+                    Automaton.A_COMBINE_JUNG, Automaton.H_STATE_3);
+            set(Automaton.H_STATE_4, key, Automaton.A_NEW_JUNG, Automaton.H_STATE_3,
+                    Automaton.A_COMBINE_JUNG, Automaton.H_STATE_4);
+            set(Automaton.H_STATE_5, key, Automaton.A_MOVE_JONG, Automaton.H_STATE_4);
+            set(Automaton.H_STATE_6, key, Automaton.A_SPLIT_JONG, Automaton.H_STATE_4);
+            set(Automaton.H_STATE_7, key, Automaton.A_NEW_JUNG, Automaton.H_STATE_3);
+        }
+    }
+
+    /** 3-beolsik 초성: only combines with a lone 초성 (ㄱ + ㄱ = ㄲ). */
+    private void buildCho(int key) {
+        for (int state = 0; state < Automaton.NUM_STATES; state++) {
+            set(state, key, Automaton.A_NEW_CHO, Automaton.H_STATE_1);
+        }
+        set(Automaton.H_STATE_1, key, Automaton.A_NEW_CHO, Automaton.H_STATE_1,
+                Automaton.A_COMBINE_CHO, Automaton.H_STATE_1);
+    }
+
+    /** 3-beolsik 중성: fills in the syllable, never takes a 종성 away. */
+    private void buildJung(int key) {
+        for (int state = 0; state < Automaton.NUM_STATES; state++) {
+            set(state, key, Automaton.A_NEW_JUNG, Automaton.H_STATE_3);
+        }
+        set(Automaton.H_STATE_1, key, Automaton.A_SET_JUNG, Automaton.H_STATE_4);
+        set(Automaton.H_STATE_2, key, Automaton.A_SET_JUNG, Automaton.H_STATE_4);
+        set(Automaton.H_STATE_3, key, Automaton.A_NEW_JUNG, Automaton.H_STATE_3,
+                Automaton.A_COMBINE_JUNG, Automaton.H_STATE_3);
+        set(Automaton.H_STATE_4, key, Automaton.A_NEW_JUNG, Automaton.H_STATE_3,
+                Automaton.A_COMBINE_JUNG, Automaton.H_STATE_4);
+    }
+
+    /** 3-beolsik 종성: completes a syllable, or stands alone. */
+    private void buildJong(int key, boolean cluster) {
+        for (int state = 0; state < Automaton.NUM_STATES; state++) {
+            set(state, key, Automaton.A_NEW_JONG, Automaton.H_STATE_7);
+        }
+        set(Automaton.H_STATE_4, key, Automaton.A_SET_JONG,
+                cluster ? Automaton.H_STATE_6 : Automaton.H_STATE_5);
+        set(Automaton.H_STATE_5, key, Automaton.A_NEW_JONG, Automaton.H_STATE_7,
+                Automaton.A_COMBINE_JONG, Automaton.H_STATE_6);
+        set(Automaton.H_STATE_7, key, Automaton.A_NEW_JONG, Automaton.H_STATE_7,
+                Automaton.A_COMBINE_JONG, Automaton.H_STATE_7);
+    }
+
+    private static String literal(char[] table) {
+        StringBuilder s = new StringBuilder(table.length * 6 + 2).append('"');
+        for (char c : table) {
+            if (c == '"' || c == '\\') {
+                s.append('\\').append(c);
+            } else if (c >= 0x20 && c < 0x7F) {
+                s.append(c);
+            } else if (c < 0x100) {
+                // Three octal digits, so a digit that follows is not taken in;
+                // a unicode escape of a line break would end the line for javac.
+                s.append(String.format("\\%03o", (int) c));
+            } else {
+                s.append(String.format("\\u%04x", (int) c));
+            }
+        }
+        return s.append('"').toString();
+    }
+
+    private static String literal(byte[] table) {
+        char[] chars = new char[table.length];
+        for (int i = 0; i < table.length; i++) {
+            chars[i] = (char) (table[i] & 0xFF);
+        }
+        return literal(chars);
+    }
+
+    private static String literal(short[] table) {
+        char[] chars = new char[table.length];
+        for (int i = 0; i < table.length; i++) {
+            chars[i] = (char) table[i];
+        }
+        return literal(chars);
+    }
+}
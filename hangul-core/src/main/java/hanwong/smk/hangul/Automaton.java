@@ -0,0 +1,74 @@
+package hanwong.smk.hangul;
+
+/**
+ * Shape of the composer tables, shared by {@link HangulComposer} and the
+ * build-time layout compiler: jamo and key indices, automaton states,
+ * actions and the packing of a transition.  Kept free of any other
+ * dependency so the compiler can be built from this file alone.
+ *
+ * Jamo indices are the compatibility jamo order: consonants are 0..29
+ * (U+3131 + index), vowels 30..50 (U+314F + index - 30).  A key index is
+ * role * NUM_JAMO + jamo, where the role says how the automaton places
+ * the jamo: 2-beolsik keys leave it to the automaton, 3-beolsik keys name
+ * the position.
+ */
+final class Automaton {
+
+    final static int JUNGSUNG_BASE = 30;
+    final static int NUM_JAMO = 51;
+
+    final static int ROLE_AUTO = 0; // 2-beolsik: 초성 or 종성 decided by the automaton
+    final static int ROLE_CHO = 1;  // 3-beolsik 초성 key
+    final static int ROLE_JUNG = 2; // 3-beolsik 중성 key
+    final static int ROLE_JONG = 3; // 3-beolsik 종성 key
+    final static int NUM_ROLES = 4;
+    final static int NUM_KEYS = NUM_ROLES * NUM_JAMO;
+
+    final static int H_STATE_0 = 0; // empty
+    final static int H_STATE_1 = 1; // 초성
+    final static int H_STATE_2 = 2; // 초성(복자음)
+    final static int H_STATE_3 = 3; // 중성(단모음,복모음)
+    final static int H_STATE_4 = 4; // 초성,중성
+    final static int H_STATE_5 = 5; // 초성,중성,종성
+    final static int H_STATE_6 = 6; // 초성,중성,종성(복자음)
+    final static int H_STATE_7 = 7; // 종성 only (3-beolsik)
+    final static int NUM_STATES = 8;
+
+    // Actions of a transition.
+    final static int A_NEW_CHO = 0;      // commit, start a new syllable with 초성
+    final static int A_NEW_JUNG = 1;     // commit, start a new syllable with 중성
+    final static int A_COMBINE_CHO = 2;  // 초성 + 자음 -> 초성(복자음)
+    final static int A_SET_JUNG = 3;     // 초성 + 모음
+    final static int A_COMBINE_JUNG = 4; // 중성 + 모음 -> 복모음
+    final static int A_SET_JONG = 5;     // 초성,중성 + 자음
+    final static int A_COMBINE_JONG = 6; // 종성 + 자음 -> 종성(복자음)
+    final static int A_SPLIT_CHO = 7;    // 초성(복자음) + 모음: commit first half
+    final static int A_MOVE_JONG = 8;    // 종성 + 모음: 종성 becomes the next 초성
+    final static int A_SPLIT_JONG = 9;   // 종성(복자음) + 모음: second half moves on
+    final static int A_NEW_JONG = 10;    // commit, start with a lone 종성
+
+    // Slot of the jamo that an incoming key may combine with, per state.
+    final static int S_CHO = 0;
+    final static int S_JUNG = 1;
+    final static int S_JONG = 2;
+    final static int[] COMBINE_SLOT =
+            {S_CHO, S_CHO, S_CHO, S_JUNG, S_JUNG, S_JONG, S_JONG, S_JONG};
+
+    /** Layout key maps cover the printable ASCII codes from here on. */
+    final static int KEYMAP_FIRST = 0x21;
+    final static int KEYMAP_SIZE = 0x7F - KEYMAP_FIRST;
+    /** Set in a key map entry that holds a key index rather than a character. */
+    final static char KEY_FLAG = 0x8000;
+
+    private Automaton() {
+    }
+
+    /**
+     * Packs the transitions of one (state, key) pair: the low byte is used
+     * when the key does not combine, the high byte when it does; each byte
+     * holds the action in its low nibble and the next state above it.
+     */
+    static short transition(int action, int next, int combinedAction, int combinedNext) {
+        return (short) (action | (next << 4) | (combinedAction << 8) | (combinedNext << 12));
+    }
+}
@@ -0,0 +1,343 @@
+package hanwong.smk.hangul;
+
+/**
+ * Cheonjiin (천지인) 12-key Hangul input, as laid out in sejong.xml.
+ *
+ * Consonant keys cycle through their jamo when tapped again before the
+ * multi-tap timeout (ㄱ -> ㅋ -> ㄲ -> ㄱ); the caller reports the timeout
+ * with {@link #timeoutExpired()} whenever {@link #isTapPending()} was true
+ * after a key.  Vowels are built from ㅣ, ㆍ and ㅡ strokes (ㅣ + ㆍ = ㅏ,
+ * ㆍ + ㅣ = ㅓ, ㆍ + ㅡ = ㅗ, ...); a ㆍ or ㆍㆍ that is not a vowel yet is
+ * shown after the composing syllable, and dropped if a consonant follows.
+ *
+ * Both are table driven.  The key or stroke being typed is the open
+ * "unit": a repeated tap or a further stroke replaces the unit's jamo and
+ * the syllable is recomputed from the state before the unit with
+ * {@link HangulComposer#step}, so the syllable rules are exactly those of
+ * the 2-beolsik automaton.  Nothing is allocated per key.
+ */
+public class CheonjiinComposer implements Composer {
+
+    /** Key codes of sejong.xml: nine consonant keys, then ㅣ, ㆍ and ㅡ. */
+    public final static int KEY_FIRST = 65;
+    public final static int KEY_LAST = 76;
+    private final static int STROKE_FIRST = 9;
+
+    private final static int JUNG = HangulComposer.JUNGSUNG_BASE;
+
+    // Vowel units besides the vowels themselves: pending ㆍ and ㆍㆍ.
+    private final static int DOT = HangulComposer.NUM_JAMO;
+    private final static int DOUBLE_DOT = DOT + 1;
+    private final static int NUM_UNITS = DOUBLE_DOT + 1;
+    private final static int NONE = -1;
+
+    private final static char DOT_LABEL = 0xB7;   // ·
+    private final static char DOUBLE_DOT_LABEL = ':';
+
+    // First jamo of each key; strokes start the vowel unit they stand for.
+    private final static int[] KEY_JAMO = {
+            0, 3, 6, 8, 16, 17, 20, 22, 23, // ㄱ,ㄴ,ㄷ,ㄹ,ㅁ,ㅂ,ㅅ,ㅇ,ㅈ
+            50, DOT, 48,                    // ㅣ,ㆍ,ㅡ
+    };
+
+    /*
+     * Multi-tap cycles, in tap order.  Keys with a single jamo do not
+     * cycle: tapping them again types the jamo again.
+     */
+    private final static int[][] TAP_CYCLES = {
+            {0, 26, 1},   // ㄱ ㅋ ㄲ
+            {6, 27, 7},   // ㄷ ㅌ ㄸ
+            {17, 28, 18}, // ㅂ ㅍ ㅃ
+            {20, 21},     // ㅅ ㅆ
+            {22, 29},     // ㅇ ㅎ
+            {23, 25, 24}, // ㅈ ㅊ ㅉ
+    };
+
+    /*
+     * Vowel strokes: unit, stroke (0 ㅣ, 1 ㆍ, 2 ㅡ), resulting unit.
+     */
+    private final static int[] VOWEL_STROKES = {
+            DOT, 0, 34,         // ㆍ ㅣ ㅓ
+            DOT, 1, DOUBLE_DOT, // ㆍ ㆍ ㆍㆍ
+            DOT, 2, 38,         // ㆍ ㅡ ㅗ
+            DOUBLE_DOT, 0, 36,  // ㆍㆍ ㅣ ㅕ
+            DOUBLE_DOT, 1, DOT, // ㆍㆍ ㆍ ㆍ
+            DOUBLE_DOT, 2, 42,  // ㆍㆍ ㅡ ㅛ
+            50, 1, 30,          // ㅣ ㆍ ㅏ
+            30, 1, 32,          // ㅏ ㆍ ㅑ
+            30, 0, 31,          // ㅏ ㅣ ㅐ
+            32, 0, 33,          // ㅑ ㅣ ㅒ
+            34, 0, 35,          // ㅓ ㅣ ㅔ
+            36, 0, 37,          // ㅕ ㅣ ㅖ
+            38, 0, 41,          // ㅗ ㅣ ㅚ
+            41, 1, 39,          // ㅚ ㆍ ㅘ
+            39, 0, 40,          // ㅘ ㅣ ㅙ
+            48, 1, 43,          // ㅡ ㆍ ㅜ
+            43, 1, 47,          // ㅜ ㆍ ㅠ
+            43, 0, 46,          // ㅜ ㅣ ㅟ
+            47, 0, 44,          // ㅠ ㅣ ㅝ
+            44, 0, 45,          // ㅝ ㅣ ㅞ
+            48, 0, 49,          // ㅡ ㅣ ㅢ
+    };
+
+    /** Consonant -> next jamo of its key's cycle, -1 if the key does not cycle. */
+    private final static byte[] NEXT_TAP = new byte[JUNG];
+    /** Consonant -> first jamo of its key, -1 if the key does not cycle. */
+    private final static byte[] TAP_KEY = new byte[JUNG];
+    /** [(unit - JUNG) * 3 + stroke] -> next vowel unit, 0 if the stroke starts a new one. */
+    private final static byte[] VOWEL_NEXT = new byte[(NUM_UNITS - JUNG) * 3];
+
+    static {
+        for (int jamo = 0; jamo < JUNG; jamo++) {
+            NEXT_TAP[jamo] = -1;
+            TAP_KEY[jamo] = -1;
+        }
+        for (int[] cycle : TAP_CYCLES) {
+            for (int i = 0; i < cycle.length; i++) {
+                NEXT_TAP[cycle[i]] = (byte) cycle[(i + 1) % cycle.length];
+                TAP_KEY[cycle[i]] = (byte) cycle[0];
+            }
+        }
+        for (int i = 0; i < VOWEL_STROKES.length; i += 3) {
+            VOWEL_NEXT[(VOWEL_STROKES[i] - JUNG) * 3 + VOWEL_STROKES[i + 1]] =
+                    (byte) VOWEL_STROKES[i + 2];
+        }
+    }
+
+    private long mState = HangulComposer.EMPTY; // what is shown
+    private long mBase = HangulComposer.EMPTY;  // the state before the open unit
+    private int mUnit = NONE;
+    private int mUnitCommitted; // characters committed when the unit was applied
+    private boolean mTapPending;
+
+    private final StringBuilder mCommit = new StringBuilder(4);
+    private final StringBuilder mComposingText = new StringBuilder(2);
+    private int mDeleteBefore;
+
+    /*
+     * Undo ring buffer: the states and the packed unit each keystroke
+     * started from.  The unit + 1 is in bits 0-7, its committed count in
+     * bits 8-11, bit 12 is set if the keystroke replaced the unit and the
+     * number of characters the keystroke committed is in bits 16 on.
+     */
+    private final long[] mUndoState;
+    private final long[] mUndoBase;
+    private final int[] mUndoUnit;
+    private int mUndoTop;
+    private int mUndoSize;
+
+    public CheonjiinComposer() {
+        this(HangulComposer.DEFAULT_UNDO_DEPTH);
+    }
+
+    public CheonjiinComposer(int undoDepth) {
+        mUndoState = new long[undoDepth];
+        mUndoBase = new long[undoDepth];
+        mUndoUnit = new int[undoDepth];
+    }
+
+    public static boolean isKey(int primaryCode) {
+        return primaryCode >= KEY_FIRST && primaryCode <= KEY_LAST;
+    }
+
+    public CharSequence getCommitText() {
+        return mCommit;
+    }
+
+    public int getDeleteBefore() {
+        return mDeleteBefore;
+    }
+
+    public CharSequence getComposingText() {
+        return mComposingText;
+    }
+
+    public boolean isComposing() {
+        return mComposingText.length() > 0;
+    }
+
+    /**
+     * True if tapping the last consonant key again would still cycle it.
+     */
+    public boolean isTapPending() {
+        return mTapPending;
+    }
+
+    /**
+     * The multi-tap timeout passed: the next tap on the same key types a
+     * new jamo instead of cycling.
+     */
+    public void timeoutExpired() {
+        mTapPending = false;
+    }
+
+    public void reset() {
+        mState = HangulComposer.EMPTY;
+        mBase = HangulComposer.EMPTY;
+        mUnit = NONE;
+        mUnitCommitted = 0;
+        mTapPending = false;
+        mCommit.setLength(0);
+        mComposingText.setLength(0);
+        mDeleteBefore = 0;
+        mUndoSize = 0;
+    }
+
+    /**
+     * Drops a ㆍ or ㆍㆍ that has not become a vowel, for the composing text
+     * to be committed without it.  Returns false if there was none.
+     */
+    public boolean dropStroke() {
+        if (mUnit != DOT && mUnit != DOUBLE_DOT) {
+            return false;
+        }
+        mState = mBase;
+        mUnit = NONE;
+        mUnitCommitted = 0;
+        updateComposingText();
+        return true;
+    }
+
+    /**
+     * Feeds one key of {@link #KEY_FIRST}..{@link #KEY_LAST}.
+     */
+    public void process(int primaryCode) {
+        mCommit.setLength(0);
+        mDeleteBefore = 0;
+
+        final long state = mState;
+        final long base = mBase;
+        int undo = (mUnit + 1) | (mUnitCommitted << 8);
+
+        int key = primaryCode - KEY_FIRST;
+        if (key >= STROKE_FIRST) {
+            int stroke = key - STROKE_FIRST;
+            int next = mUnit >= JUNG ? VOWEL_NEXT[(mUnit - JUNG) * 3 + stroke] : 0;
+            if (next != 0) {
+                replaceUnit(next);
+                undo |= 1 << 12;
+            } else {
+                startUnit(KEY_JAMO[key]);
+            }
+            mTapPending = false;
+        } else {
+            if (mTapPending && TAP_KEY[mUnit] == KEY_JAMO[key]) {
+                replaceUnit(NEXT_TAP[mUnit]);
+                undo |= 1 << 12;
+            } else {
+                startUnit(KEY_JAMO[key]);
+            }
+            mTapPending = NEXT_TAP[mUnit] >= 0;
+        }
+
+        mUndoState[mUndoTop] = state;
+        mUndoBase[mUndoTop] = base;
+        mUndoUnit[mUndoTop] = undo | (mCommit.length() << 16);
+        mUndoTop = (mUndoTop + 1) % mUndoState.length;
+        if (mUndoSize < mUndoState.length) {
+            mUndoSize++;
+        }
+        updateComposingText();
+    }
+
+    private void startUnit(int unit) {
+        if (mUnit == DOT || mUnit == DOUBLE_DOT) {
+            // A ㆍ that never became a vowel is half a vowel, not text:
+            // drop it and go on from the syllable before it.
+            mState = mBase;
+        } else if (unit >= JUNG) {
+            // A vowel after a vowel starts a new syllable; the 2-beolsik
+            // vowel combinations (ㅗ + ㅗ = ㅛ) do not apply here.
+            int automatonState = (int) mState & 0x7;
+            if (automatonState == Automaton.H_STATE_3
+                    || automatonState == Automaton.H_STATE_4) {
+                mCommit.append(HangulComposer.composingChar(mState));
+                mState = HangulComposer.EMPTY;
+            }
+        }
+        mBase = mState;
+        mUnit = unit;
+        applyUnit();
+    }
+
+    private void replaceUnit(int unit) {
+        mDeleteBefore = mUnitCommitted;
+        mUnit = unit;
+        applyUnit();
+    }
+
+    private void applyUnit() {
+        if (mUnit == DOT || mUnit == DOUBLE_DOT) {
+            mState = mBase;
+            mUnitCommitted = 0;
+            return;
+        }
+        mState = HangulComposer.step(mBase, mUnit);
+        char committed = HangulComposer.committedChar(mState);
+        if (committed != 0) {
+            mCommit.append(committed);
+        }
+        mUnitCommitted = committed != 0 ? 1 : 0;
+    }
+
+    private void updateComposingText() {
+        mComposingText.setLength(0);
+        char composing = HangulComposer.composingChar(mState);
+        if (composing != 0) {
+            mComposingText.append(composing);
+        }
+        if (mUnit == DOT) {
+            mComposingText.append(DOT_LABEL);
+        } else if (mUnit == DOUBLE_DOT) {
+            mComposingText.append(DOUBLE_DOT_LABEL);
+        }
+    }
+
+    public boolean backspace() {
+        mCommit.setLength(0);
+        mDeleteBefore = 0;
+        mTapPending = false;
+
+        if (mUndoSize > 0) {
+            mUndoTop = (mUndoTop + mUndoState.length - 1) % mUndoState.length;
+            mUndoSize--;
+            int undo = mUndoUnit[mUndoTop];
+            mState = mUndoState[mUndoTop];
+            mBase = mUndoBase[mUndoTop];
+            mUnit = (undo & 0xFF) - 1;
+            mUnitCommitted = (undo >> 8) & 0xF;
+            mDeleteBefore = undo >>> 16;
+            if ((undo & (1 << 12)) != 0 && mUnitCommitted > 0) {
+                // The keystroke took back what the unit had committed.
+                mCommit.append(HangulComposer.committedChar(mState));
+            }
+            updateComposingText();
+            return true;
+        }
+
+        if (mUnit == DOT || mUnit == DOUBLE_DOT) {
+            mState = mBase;
+        } else if (HangulComposer.isComposing(mState)) {
+            mState = HangulComposer.removeLastJamo(mState);
+        } else {
+            return false;
+        }
+        mBase = mState;
+        mUnit = NONE;
+        mUnitCommitted = 0;
+        updateComposingText();
+        return true;
+    }
+
+    public boolean resume(char c) {
+        long state = HangulComposer.resumeState(c);
+        if (state == HangulComposer.EMPTY) {
+            return false;
+        }
+        reset();
+        mState = state;
+        mBase = state;
+        updateComposingText();
+        return true;
+    }
+}
@@ -0,0 +1,44 @@
+package hanwong.smk.hangul;
+
+/**
+ * What the IME needs from a Hangul input engine, whatever its layout.
+ * After every call that changes the text, the caller deletes
+ * {@link #getDeleteBefore()} characters before the composing text, commits
+ * {@link #getCommitText()} and then shows {@link #getComposingText()} as
+ * the new composing text.
+ */
+public interface Composer {
+
+    /**
+     * Text to commit as a result of the last call.  May be empty.
+     */
+    CharSequence getCommitText();
+
+    /**
+     * Committed characters before the composing text to delete as a result
+     * of the last call, before committing {@link #getCommitText()}.
+     */
+    int getDeleteBefore();
+
+    /**
+     * The text being composed.  Empty if nothing is composing.
+     */
+    CharSequence getComposingText();
+
+    boolean isComposing();
+
+    /**
+     * Takes back the last keystroke.  Returns false if there is nothing to
+     * take back, in which case the caller should delete the character
+     * before the cursor itself.
+     */
+    boolean backspace();
+
+    /**
+     * Reopens an already committed character for composition.  Returns
+     * false, leaving the composer untouched, if it cannot be continued.
+     */
+    boolean resume(char c);
+
+    void reset();
+}
@@ -0,0 +1,439 @@
+/*
+ * Some Hangul InputMethod Code added by www.kandroid.org
+ */
+
+package hanwong.smk.hangul;
+
+import static hanwong.smk.hangul.Automaton.*;
+
+/**
+ * Hangul automaton for 2-beolsik and 3-beolsik layouts.  Takes key indices
+ * of the current {@link Layout} (see {@link #keyIndex}) and turns them into
+ * composition deltas: after each call to {@link #process} or
+ * {@link #backspace} the caller should commit {@link #getCommitText()} and
+ * then show {@link #getComposingChar()} as the composing text.  This
+ * class knows nothing about the editor, so it can be driven from a plain
+ * JVM.
+ *
+ * The automaton is table driven.  Every (state, key) pair is looked up in
+ * the layout's transition table, which holds the action and next state both
+ * for the case where the key combines with the jamo already in place
+ * (looked up in its combination table) and for the case where it does not.
+ * The tables are compiled from the layout descriptions at build time, so
+ * switching layouts swaps tables.  A step is two array reads and one small
+ * switch, and allocates nothing.
+ *
+ * The state itself is an immutable {@code long} (see {@link #step}), so
+ * callers such as correction or prediction can run alternative key
+ * sequences from the live state in parallel without disturbing it; an
+ * instance of this class just holds the current state for the IME.
+ *
+ * Every keystroke also pushes the state it started from onto a bounded
+ * undo stack, so backspace takes back exactly the last keystroke, even one
+ * that committed the previous syllable; {@link #getDeleteBefore()} then
+ * tells the caller how many committed characters to take back.
+ */
+public class HangulComposer implements Composer {
+
+    /** First jamo index that is a vowel.  Consonants are 0..29, vowels 30..50. */
+    public final static int JUNGSUNG_BASE = Automaton.JUNGSUNG_BASE;
+    /** Number of jamo indices; a key index is a multiple of this plus the jamo. */
+    public final static int NUM_JAMO = Automaton.NUM_JAMO;
+
+    /*
+     * A composer state is a long: the automaton state in bits 0-2, the
+     * 초/중/종 jamo indices in bits 3-8, 9-14 and 15-20, the composing
+     * character in bits 32-47 and the character the step that produced the
+     * state committed, if any, in bits 48-63.
+     */
+
+    /** The state with nothing composing. */
+    public final static long EMPTY = 0;
+
+    private final static int AUTOMATON_MASK = 0x1FFFFF;
+    private final static int COMPOSING_SHIFT = 32;
+    private final static int COMMITTED_SHIFT = 48;
+
+    private Layout mLayout = Layouts.TWO_SET;
+    private long mState = EMPTY;
+
+    private final StringBuilder mCommit = new StringBuilder(4);
+    private final StringBuilder mComposingText = new StringBuilder(1);
+    private int mDeleteBefore;
+
+    /** Keystrokes that backspace can take back, by default. */
+    public final static int DEFAULT_UNDO_DEPTH = 32;
+
+    /*
+     * Ring buffer of the automaton parts (bits 0-20) of the states
+     * keystrokes started from, with the number of characters the keystroke
+     * committed from bit 21 on.
+     */
+    private final int[] mUndo;
+    private int mUndoTop;
+    private int mUndoSize;
+
+    public HangulComposer() {
+        this(DEFAULT_UNDO_DEPTH);
+    }
+
+    public HangulComposer(int undoDepth) {
+        mUndo = new int[undoDepth];
+    }
+
+    public Layout getLayout() {
+        return mLayout;
+    }
+
+    /**
+     * Switches to another layout.  Drops the composition and undo history,
+     * which belong to the old layout's keys.
+     */
+    public void setLayout(Layout layout) {
+        reset();
+        mLayout = layout;
+    }
+
+    /**
+     * Maps a Latin key code from the current layout to a key index.
+     * Returns -1 if the code is not a Hangul key.
+     */
+    public int keyIndex(int primaryCode, boolean shifted) {
+        return mLayout.keyIndex(primaryCode, shifted);
+    }
+
+    /**
+     * Feeds one 2-beolsik key index into the automaton in the given state
+     * and returns the resulting state.  See {@link #step(Layout, long, int)}.
+     */
+    public static long step(long state, int hangulKeyIdx) {
+        return step(Layouts.TWO_SET, state, hangulKeyIdx);
+    }
+
+    /**
+     * Feeds one key index of the given layout into the automaton in the
+     * given state and returns the resulting state.  Pure: no state is
+     * shared between calls, so any number of alternative key sequences can
+     * be explored side by side, from any thread.
+     */
+    public static long step(Layout layout, long state, int hangulKeyIdx) {
+        final int automaton = (int) state;
+        final int current = automaton & 0x7;
+        final int jamo = hangulKeyIdx % NUM_JAMO;
+        int cho = (automaton >> 3) & 0x3F;
+        int jung = (automaton >> 9) & 0x3F;
+        int jong = (automaton >> 15) & 0x3F;
+
+        int combined = layout.combine[((automaton >> (3 + 6 * COMBINE_SLOT[current])) & 0x3F)
+                * NUM_KEYS + hangulKeyIdx];
+        int transition = layout.transitions[current * NUM_KEYS + hangulKeyIdx];
+        if (combined != 0) {
+            transition >>= 8;
+        }
+
+        char committed = 0;
+        switch (transition & 0xF) {
+            case A_NEW_CHO:
+                committed = composingChar(state);
+                cho = jamo;
+                jung = 0;
+                jong = 0;
+                break;
+            case A_NEW_JUNG:
+                committed = composingChar(state);
+                cho = 0;
+                jung = jamo;
+                jong = 0;
+                break;
+            case A_NEW_JONG:
+                committed = composingChar(state);
+                cho = 0;
+                jung = 0;
+                jong = jamo;
+                break;
+            case A_COMBINE_CHO:
+                cho = combined;
+                break;
+            case A_SET_JUNG:
+                jung = jamo;
+                break;
+            case A_COMBINE_JUNG:
+                jung = combined;
+                break;
+            case A_SET_JONG:
+                jong = jamo;
+                break;
+            case A_COMBINE_JONG:
+                jong = combined;
+                break;
+            case A_SPLIT_CHO:
+                committed = HangulSyllables.compose(HangulSyllables.firstPart(cho), -1, -1);
+                cho = HangulSyllables.secondPart(cho);
+                jung = jamo;
+                break;
+            case A_MOVE_JONG:
+                committed = HangulSyllables.compose(cho, jung, -1);
+                cho = jong;
+                jung = jamo;
+                jong = 0;
+                break;
+            case A_SPLIT_JONG:
+                committed = HangulSyllables.compose(cho, jung, HangulSyllables.firstPart(jong));
+                cho = HangulSyllables.secondPart(jong);
+                jung = jamo;
+                jong = 0;
+                break;
+        }
+        return state((transition >> 4) & 0x7, cho, jung, jong, committed);
+    }
+
+    private static long state(int automatonState, int cho, int jung, int jong, char committed) {
+        return automatonState | (cho << 3) | (jung << 9) | (jong << 15)
+                | ((long) composingChar(automatonState, cho, jung, jong) << COMPOSING_SHIFT)
+                | ((long) committed << COMMITTED_SHIFT);
+    }
+
+    private static long state(int automaton) {
+        return state(automaton & 0x7, (automaton >> 3) & 0x3F, (automaton >> 9) & 0x3F,
+                (automaton >> 15) & 0x3F, (char) 0);
+    }
+
+    /**
+     * The state that composes the given jamo key indices, -1 meaning absent.
+     */
+    private static long state(int cho, int jung, int jong) {
+        int automatonState;
+        if (jong >= 0) {
+            automatonState = HangulSyllables.secondPart(jong) >= 0 ? H_STATE_6 : H_STATE_5;
+        } else if (jung >= 0) {
+            automatonState = cho >= 0 ? H_STATE_4 : H_STATE_3;
+        } else if (cho >= 0) {
+            automatonState = HangulSyllables.secondPart(cho) >= 0 ? H_STATE_2 : H_STATE_1;
+        } else {
+            return EMPTY;
+        }
+        return state(automatonState, cho < 0 ? 0 : cho, jung < 0 ? 0 : jung,
+                jong < 0 ? 0 : jong, (char) 0);
+    }
+
+    /**
+     * The state that continues composing an already committed syllable or
+     * jamo, or {@link #EMPTY} if the character is not Hangul.
+     */
+    public static long resumeState(char c) {
+        int packed = HangulSyllables.decompose(c);
+        if (packed == 0) {
+            return EMPTY;
+        }
+        return state(HangulSyllables.cho(packed), HangulSyllables.jung(packed),
+                HangulSyllables.jong(packed));
+    }
+
+    /**
+     * {@link #resumeState(char)} for the given layout.  A consonant cluster
+     * that the layout only builds from 종성 keys, as 3-beolsik builds ㄳ,
+     * resumes as a lone 종성; any other lone consonant as a 초성.
+     */
+    public static long resumeState(Layout layout, char c) {
+        long state = resumeState(c);
+        if ((state & 0x7) == H_STATE_2) {
+            int cluster = ((int) state >> 3) & 0x3F;
+            if (!combines(layout, ROLE_AUTO, cluster) && !combines(layout, ROLE_CHO, cluster)
+                    && combines(layout, ROLE_JONG, cluster)) {
+                return state(H_STATE_7, 0, 0, cluster, (char) 0);
+            }
+        }
+        return state;
+    }
+
+    // Whether the layout builds the cluster from its first part and a key
+    // of the given role typing its second part.
+    private static boolean combines(Layout layout, int role, int cluster) {
+        return layout.combine[HangulSyllables.firstPart(cluster) * NUM_KEYS
+                + role * NUM_JAMO + HangulSyllables.secondPart(cluster)] == cluster;
+    }
+
+    /**
+     * The character being composed in a state, or 0 if nothing is composing.
+     */
+    public static char composingChar(long state) {
+        return (char) (state >>> COMPOSING_SHIFT);
+    }
+
+    /**
+     * The character committed by the step that produced a state, or 0.
+     */
+    public static char committedChar(long state) {
+        return (char) (state >>> COMMITTED_SHIFT);
+    }
+
+    public static boolean isComposing(long state) {
+        return (state & 0x7) != H_STATE_0;
+    }
+
+    /**
+     * The state with the last jamo of the composing character removed,
+     * reading the remaining jamo back from the character: a 종성 cluster
+     * drops its second half and a 중성 is removed whole.  A lone 종성
+     * (3-beolsik) is read from the state instead, as its character would
+     * read back as a 초성.
+     */
+    public static long removeLastJamo(long state) {
+        if ((state & 0x7) == H_STATE_7) {
+            int jong = HangulSyllables.firstPart(((int) state >> 15) & 0x3F);
+            return jong >= 0 ? state(H_STATE_7, 0, 0, jong, (char) 0) : EMPTY;
+        }
+        int packed = HangulSyllables.decompose(composingChar(state));
+        int cho = HangulSyllables.cho(packed);
+        int jung = HangulSyllables.jung(packed);
+        int jong = HangulSyllables.jong(packed);
+        if (jong >= 0) {
+            jong = HangulSyllables.firstPart(jong);
+        } else if (jung >= 0) {
+            jung = -1;
+        } else if (cho >= 0) {
+            cho = HangulSyllables.firstPart(cho);
+        }
+        return state(cho, jung, jong);
+    }
+
+    /**
+     * The character shown for the given state and jamo.
+     */
+    static char composingChar(int state, int cho, int jung, int jong) {
+        switch (state) {
+            case H_STATE_1:
+            case H_STATE_2:
+                return HangulSyllables.compose(cho, -1, -1);
+            case H_STATE_3:
+                return HangulSyllables.compose(-1, jung, -1);
+            case H_STATE_4:
+                return HangulSyllables.compose(cho, jung, -1);
+            case H_STATE_5:
+            case H_STATE_6:
+                return HangulSyllables.compose(cho, jung, jong);
+            case H_STATE_7:
+                return HangulSyllables.compose(jong, -1, -1);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * The current state, as a value that {@link #step} can continue from
+     * without touching this composer.
+     */
+    public long getState() {
+        return mState;
+    }
+
+    /**
+     * Text that has to be committed to the editor as a result of the last
+     * call, before the composing character is shown.  May be empty.
+     */
+    public CharSequence getCommitText() {
+        return mCommit;
+    }
+
+    /**
+     * Number of characters before the composing text that the editor has to
+     * delete as a result of the last call, before committing
+     * {@link #getCommitText()}.  Non-zero only when backspace went back
+     * over a syllable boundary.
+     */
+    public int getDeleteBefore() {
+        return mDeleteBefore;
+    }
+
+    /**
+     * The character currently being composed, or 0 if nothing is composing.
+     */
+    public char getComposingChar() {
+        return composingChar(mState);
+    }
+
+    public CharSequence getComposingText() {
+        mComposingText.setLength(0);
+        char composing = composingChar(mState);
+        if (composing != 0) {
+            mComposingText.append(composing);
+        }
+        return mComposingText;
+    }
+
+    public boolean isComposing() {
+        return isComposing(mState);
+    }
+
+    public void reset() {
+        mState = EMPTY;
+        mCommit.setLength(0);
+        mDeleteBefore = 0;
+        mUndoSize = 0;
+    }
+
+    /**
+     * Feeds one key index of the current layout into the automaton.
+     */
+    public void process(int hangulKeyIdx) {
+        mCommit.setLength(0);
+        mDeleteBefore = 0;
+
+        final int undo = (int) mState & AUTOMATON_MASK;
+        mState = step(mLayout, mState, hangulKeyIdx);
+        char committed = committedChar(mState);
+        if (committed != 0) {
+            mCommit.append(committed);
+        }
+
+        mUndo[mUndoTop] = undo | (mCommit.length() << 21);
+        mUndoTop = (mUndoTop + 1) % mUndo.length;
+        if (mUndoSize < mUndo.length) {
+            mUndoSize++;
+        }
+    }
+
+    /**
+     * Takes back the last keystroke.  Returns false if there is nothing to
+     * take back, in which case the caller should delete the character
+     * before the cursor itself.
+     *
+     * Once the undo stack is used up, the last jamo is removed from the
+     * composing syllable instead (see {@link #removeLastJamo}).
+     */
+    public boolean backspace() {
+        mCommit.setLength(0);
+        mDeleteBefore = 0;
+
+        if (mUndoSize > 0) {
+            mUndoTop = (mUndoTop + mUndo.length - 1) % mUndo.length;
+            mUndoSize--;
+            int undo = mUndo[mUndoTop];
+            mState = state(undo & AUTOMATON_MASK);
+            mDeleteBefore = undo >>> 21;
+            return true;
+        }
+        if (!isComposing(mState)) {
+            return false;
+        }
+
+        mState = removeLastJamo(mState);
+        return true;
+    }
+
+    /**
+     * Reopens an already committed syllable or jamo for composition, as if
+     * it had just been typed, so that following keys continue it.  Returns
+     * false, leaving the composer untouched, if the character is not
+     * Hangul.
+     */
+    public boolean resume(char c) {
+        long state = resumeState(mLayout, c);
+        if (state == EMPTY) {
+            return false;
+        }
+        reset();
+        mState = state;
+        return true;
+    }
+}
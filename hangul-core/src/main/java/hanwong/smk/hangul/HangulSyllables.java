@@ -0,0 +1,186 @@
+package hanwong.smk.hangul;
+
+/**
+ * Lookup tables for the 11,172 precomposed Hangul syllables (U+AC00 to
+ * U+D7A3) and the compatibility jamo (U+3131 to U+3163).
+ *
+ * Characters decompose into a packed value holding jamo key indices (the
+ * same indices {@link HangulComposer} works with): bits 0-4 hold 초성 + 1,
+ * bits 5-9 hold 중성 - 30 + 1 and bits 10-14 hold 종성 + 1, where 0 means
+ * the part is absent.  Both directions are a single array read.
+ */
+public final class HangulSyllables {
+
+    public final static char SYLLABLE_FIRST = 0xAC00;
+    public final static char SYLLABLE_LAST = 0xD7A3;
+    public final static char JAMO_FIRST = 0x3131;
+    public final static char JAMO_LAST = 0x3163;
+    public final static int NUM_SYLLABLES = SYLLABLE_LAST - SYLLABLE_FIRST + 1;
+
+    private final static int JUNG = HangulComposer.JUNGSUNG_BASE;
+
+    // Jamo index -> Unicode 초성 index (0..18) / 종성 index (1..27, 0 if invalid)
+    final static char[] h_chosung_idx =
+            {0, 1, 9, 2, 12, 18, 3, 4, 5, 0, 6, 7, 9, 16, 17, 18, 6, 7, 8, 9, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18};
+    /*
+        {0, 1, 9, 2,12,18, 3,4, 5, 0, 6, 7, 9,16,17, 18,6, 7, 8, 9, 9,10,11, 12, 13,14,15,16,17,18};
+    //   ㄱ,ㄲ,ㄳ,ㄴ,ㄵ,ㄶ,ㄷ,ㄸ,ㄹ,ㄺ,ㄻ,ㄼ,ㄽ,ㄾ,ㄿ, ㅀ,ㅁ,ㅂ,ㅃ,ㅄ,ㅅ,ㅆ,ㅇ, ㅈ, ㅉ,ㅊ,ㅋ, ㅌ,ㅍ,ㅎ
+    //   ㄱ,ㄲ,   ㄴ,      ㄷ,ㄸ,ㄹ,                     ㅁ,ㅂ,ㅃ,   ㅅ,ㅆ,ㅇ, ㅈ, ㅉ,ㅊ,ㅋ, ㅌ,ㅍ,ㅎ
+    */
+    final static char[] h_jongsung_idx =
+            {0, 1, 2, 3, 4, 5, 6, 7, 0, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 0, 18, 19, 20, 21, 22, 0, 23, 24, 25, 26, 27};
+    /*
+    {0, 1, 2, 3, 4, 5, 6, 7, 0,8, 9,10,11, 12,13, 14,15,16, 17,0,18, 19,20,21,22, 0 ,23,24,25,26,27};
+    //   x, ㄱ,ㄲ,ㄳ,ㄴ,ㄵ,ㄶ,ㄷ,ㄸ,ㄹ,ㄺ,ㄻ,ㄼ, ㄽ,ㄾ, ㄿ,ㅀ,ㅁ, ㅂ,ㅃ,ㅄ, ㅅ,ㅆ, o,ㅈ, ㅉ,ㅊ, ㅋ,ㅌ,ㅍ,ㅎ,
+    */
+
+    /*
+     * Compound jamo: compound, first part, second part.
+     */
+    private final static int[] h_compounds = {
+            2, 0, 20,    // ㄳ ㄱ ㅅ
+            4, 3, 23,    // ㄵ ㄴ ㅈ
+            5, 3, 29,    // ㄶ ㄴ ㅎ
+            9, 8, 0,     // ㄺ ㄹ ㄱ
+            10, 8, 16,   // ㄻ ㄹ ㅁ
+            11, 8, 17,   // ㄼ ㄹ ㅂ
+            12, 8, 20,   // ㄽ ㄹ ㅅ
+            13, 8, 27,   // ㄾ ㄹ ㅌ
+            14, 8, 28,   // ㄿ ㄹ ㅍ
+            15, 8, 29,   // ㅀ ㄹ ㅎ
+            19, 17, 20,  // ㅄ ㅂ ㅅ
+            39, 38, 30,  // ㅘ ㅗ ㅏ
+            40, 38, 31,  // ㅙ ㅗ ㅐ
+            41, 38, 50,  // ㅚ ㅗ ㅣ
+            44, 43, 34,  // ㅝ ㅜ ㅓ
+            45, 43, 35,  // ㅞ ㅜ ㅔ
+            46, 43, 50,  // ㅟ ㅜ ㅣ
+            49, 48, 50,  // ㅢ ㅡ ㅣ
+    };
+
+    // Mixed radix index of the compose table: (초성 + 1, 중성 + 1, 종성 + 1).
+    private final static int CHO_RADIX = HangulComposer.JUNGSUNG_BASE + 1;
+    private final static int JUNG_RADIX = HangulComposer.NUM_JAMO - JUNG + 1;
+    private final static int JONG_RADIX = HangulComposer.JUNGSUNG_BASE + 1;
+
+    /** Syllable - U+AC00 -> packed jamo. */
+    private final static char[] DECOMPOSED = new char[NUM_SYLLABLES];
+    /** Compatibility jamo - U+3131 -> packed jamo. */
+    private final static char[] JAMO_DECOMPOSED = new char[JAMO_LAST - JAMO_FIRST + 1];
+    /** (초성 + 1, 중성 + 1, 종성 + 1) -> character, 0 if the combination is invalid. */
+    private final static char[] COMPOSED = new char[CHO_RADIX * JUNG_RADIX * JONG_RADIX];
+
+    private final static byte[] FIRST_PART = new byte[HangulComposer.NUM_JAMO];
+    private final static byte[] SECOND_PART = new byte[HangulComposer.NUM_JAMO];
+
+    static {
+        for (int jamo = 0; jamo < HangulComposer.NUM_JAMO; jamo++) {
+            FIRST_PART[jamo] = -1;
+            SECOND_PART[jamo] = -1;
+        }
+        for (int i = 0; i < h_compounds.length; i += 3) {
+            FIRST_PART[h_compounds[i]] = (byte) h_compounds[i + 1];
+            SECOND_PART[h_compounds[i]] = (byte) h_compounds[i + 2];
+        }
+
+        for (int jamo = 0; jamo < JAMO_DECOMPOSED.length; jamo++) {
+            int packed = jamo < JUNG ? pack(jamo, -1, -1) : pack(-1, jamo, -1);
+            JAMO_DECOMPOSED[jamo] = (char) packed;
+            COMPOSED[composedIndex(packed)] = (char) (JAMO_FIRST + jamo);
+        }
+
+        for (int cho = 0; cho < JUNG; cho++) {
+            if (SECOND_PART[cho] >= 0) {
+                continue; // clusters are never 초성 of a syllable
+            }
+            for (int jung = JUNG; jung < HangulComposer.NUM_JAMO; jung++) {
+                for (int jong = -1; jong < JUNG; jong++) {
+                    int jongIdx = jong < 0 ? 0 : h_jongsung_idx[jong + 1];
+                    if (jong >= 0 && jongIdx == 0) {
+                        continue;
+                    }
+                    int syllable = (h_chosung_idx[cho] * 21 + (jung - JUNG)) * 28 + jongIdx;
+                    int packed = pack(cho, jung, jong);
+                    DECOMPOSED[syllable] = (char) packed;
+                    COMPOSED[composedIndex(packed)] = (char) (SYLLABLE_FIRST + syllable);
+                }
+            }
+        }
+    }
+
+    private HangulSyllables() {
+    }
+
+    private static int composedIndex(int packed) {
+        return ((packed & 0x1F) * JUNG_RADIX + ((packed >> 5) & 0x1F)) * JONG_RADIX
+                + (packed >> 10);
+    }
+
+    /**
+     * Packs jamo key indices, -1 meaning absent.
+     */
+    public static int pack(int cho, int jung, int jong) {
+        return (cho + 1) | ((jung < 0 ? 0 : jung - JUNG + 1) << 5) | ((jong + 1) << 10);
+    }
+
+    /**
+     * Decomposes a syllable or compatibility jamo into packed jamo.  Returns
+     * 0 for anything else.
+     */
+    public static int decompose(char c) {
+        if (c >= SYLLABLE_FIRST && c <= SYLLABLE_LAST) {
+            return DECOMPOSED[c - SYLLABLE_FIRST];
+        } else if (c >= JAMO_FIRST && c <= JAMO_LAST) {
+            return JAMO_DECOMPOSED[c - JAMO_FIRST];
+        }
+        return 0;
+    }
+
+    /**
+     * The character for packed jamo, or 0 if they do not form one.
+     */
+    public static char compose(int packed) {
+        return COMPOSED[composedIndex(packed)];
+    }
+
+    /**
+     * The character for the given jamo key indices, -1 meaning absent, or 0
+     * if they do not form one.
+     */
+    public static char compose(int cho, int jung, int jong) {
+        return COMPOSED[((cho + 1) * JUNG_RADIX + (jung < 0 ? 0 : jung - JUNG + 1)) * JONG_RADIX
+                + jong + 1];
+    }
+
+    /** 초성 of packed jamo, or -1. */
+    public static int cho(int packed) {
+        return (packed & 0x1F) - 1;
+    }
+
+    /** 중성 of packed jamo, or -1. */
+    public static int jung(int packed) {
+        int jung = (packed >> 5) & 0x1F;
+        return jung == 0 ? -1 : jung - 1 + JUNG;
+    }
+
+    /** 종성 of packed jamo, or -1. */
+    public static int jong(int packed) {
+        return (packed >> 10) - 1;
+    }
+
+    /**
+     * First half of a consonant cluster or compound vowel (ㄺ -> ㄹ,
+     * ㅘ -> ㅗ), or -1 if the jamo is not a compound.
+     */
+    public static int firstPart(int jamo) {
+        return FIRST_PART[jamo];
+    }
+
+    /**
+     * Second half of a consonant cluster or compound vowel (ㄺ -> ㄱ,
+     * ㅘ -> ㅏ), or -1 if the jamo is not a compound.
+     */
+    public static int secondPart(int jamo) {
+        return SECOND_PART[jamo];
+    }
+}
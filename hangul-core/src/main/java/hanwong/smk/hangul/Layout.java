@@ -0,0 +1,65 @@
+package hanwong.smk.hangul;
+
+/**
+ * The tables {@link HangulComposer} runs on for one keyboard layout.
+ * Instances are generated at build time from the layout descriptions in
+ * src/main/layouts (see {@link Layouts}); the tables come in as string
+ * constants and are only copied out, never parsed.
+ */
+public final class Layout {
+
+    /** Name of the layout, e.g. "2-beolsik". */
+    public final String title;
+
+    /** [code - KEYMAP_FIRST] -> KEY_FLAG | key index, a character, or 0. */
+    private final char[] mKeyMap;
+    /** [jamo * NUM_KEYS + key] -> combined jamo, 0 if none. */
+    final byte[] combine;
+    /** [state * NUM_KEYS + key] -> packed transitions, see {@link Automaton#transition}. */
+    final short[] transitions;
+
+    Layout(String title, String keyMap, String combine, String transitions) {
+        this.title = title;
+        mKeyMap = keyMap.toCharArray();
+        this.combine = new byte[combine.length()];
+        for (int i = 0; i < this.combine.length; i++) {
+            this.combine[i] = (byte) combine.charAt(i);
+        }
+        this.transitions = new short[transitions.length()];
+        for (int i = 0; i < this.transitions.length; i++) {
+            this.transitions[i] = (short) transitions.charAt(i);
+        }
+    }
+
+    private char entry(int primaryCode, boolean shifted) {
+        if (shifted && primaryCode >= 'a' && primaryCode <= 'z') {
+            primaryCode -= 'a' - 'A';
+        }
+        int i = primaryCode - Automaton.KEYMAP_FIRST;
+        return i >= 0 && i < mKeyMap.length ? mKeyMap[i] : 0;
+    }
+
+    /**
+     * Maps a Latin key code to a key index for {@link HangulComposer#process}.
+     * Returns -1 if the code is not a Hangul key on this layout.
+     */
+    public int keyIndex(int primaryCode, boolean shifted) {
+        char entry = entry(primaryCode, shifted);
+        return (entry & Automaton.KEY_FLAG) != 0 ? entry & ~Automaton.KEY_FLAG : -1;
+    }
+
+    /**
+     * The character a non-Hangul key of this layout types in place of the
+     * code (3-beolsik layouts move digits and symbols around), or 0 if the
+     * code types itself.
+     */
+    public char literal(int primaryCode, boolean shifted) {
+        char entry = entry(primaryCode, shifted);
+        return (entry & Automaton.KEY_FLAG) != 0 ? 0 : entry;
+    }
+
+    @Override
+    public String toString() {
+        return title;
+    }
+}
@@ -0,0 +1,430 @@
+package hanwong.smk.hangul;
+
+import java.util.Arrays;
+
+/**
+ * Romanized Korean typed on a Latin keyboard ("annyeong" -> 안녕), after
+ * the Revised Romanization: letters are matched against the romanization
+ * of each jamo and the jamo fed into the 2-beolsik automaton, which builds
+ * the syllables.  A vowel that does not follow a consonant gets the
+ * silent ㅇ in front of it.
+ *
+ * Matching is longest match, streamed: the letters that could still
+ * become a longer match ("n" of "ng", "y" of "yeo") stay pending, at most
+ * {@link #MAX_PENDING} of them, and are settled as soon as the next letter
+ * rules the longer match in or out.  "ng" also looks one letter ahead: it
+ * is ㅇ at the end of a syllable, but ㄴ + ㄱ before a vowel ("hangeul" ->
+ * 한글).  Likewise k, t and p that end a syllable, not followed by a
+ * vowel, are read as the finals ㄱ, ㅅ and ㅂ they mostly spell ("mat" ->
+ * 맛), and as ㅋ, ㅌ and ㅍ anywhere else.  Meanwhile the pending letters
+ * are shown as they would be read if the word ended there, recomputed
+ * from the state before them, so a keystroke costs the same however long
+ * the word is, and nothing is allocated.
+ *
+ * Letters are read as spelled, not as pronounced: sound changes are not
+ * undone, so "gamsahamnida" is 감사함니다 and 감사합니다 is typed
+ * "gamsahapnida".
+ *
+ * Backspace takes back the last letter typed, not the last jamo, so that
+ * "hangeu", backspace, "l" is the same as "hangel": every letter pushes
+ * the state it started from onto a bounded undo stack, as in
+ * {@link HangulComposer}, and backspace pops it.  Once the last
+ * {@link #UNDO_DEPTH} letters are taken back, or in a syllable picked up
+ * from the editor, backspace takes back jamo instead.
+ */
+public class RomanizationComposer implements Composer {
+
+    /** The longest romanization is three letters ("yeo", "wae"). */
+    public final static int MAX_PENDING = 3;
+    /** Letters that backspace can take back. */
+    public final static int UNDO_DEPTH = 32;
+    /** The most a letter can commit: two characters per pending letter. */
+    private final static int MAX_SETTLED = 2 * (MAX_PENDING + 1);
+
+    private final static int JUNG = HangulComposer.JUNGSUNG_BASE;
+    private final static int SILENT_IEUNG = 22; // ㅇ
+    private final static int KIYEOK = 0, SIOS = 20, PIEUP = 17;
+    private final static int KHIEUKH = 26, THIEUTH = 27, PHIEUPH = 28;
+    private final static int NONE = -1;
+
+    /*
+     * Romanization of each jamo index that can be typed.  "ng" is marked
+     * with a leading '-': it only matches before something other than a
+     * vowel.
+     */
+    private final static String[] RULES = {
+            "g", "kk", null, "n", null, null, "d", "tt", "r", null,  // ㄱ ㄲ ㄳ ㄴ ㄵ ㄶ ㄷ ㄸ ㄹ ㄺ
+            null, null, null, null, null, null, "m", "b", "pp", null, // ㄻ ㄼ ㄽ ㄾ ㄿ ㅀ ㅁ ㅂ ㅃ ㅄ
+            "s", "ss", "-ng", "j", "jj", "ch", "k", "t", "p", "h",    // ㅅ ㅆ ㅇ ㅈ ㅉ ㅊ ㅋ ㅌ ㅍ ㅎ
+            "a", "ae", "ya", "yae", "eo", "e", "yeo", "ye", "o", "wa", // ㅏ ㅐ ㅑ ㅒ ㅓ ㅔ ㅕ ㅖ ㅗ ㅘ
+            "wae", "oe", "yo", "u", "wo", "we", "wi", "yu", "eu", "ui", // ㅙ ㅚ ㅛ ㅜ ㅝ ㅞ ㅟ ㅠ ㅡ ㅢ
+            "i",                                                        // ㅣ
+    };
+    /** Spelled differently, the same jamo. */
+    private final static String L_RULE = "l"; // ㄹ
+
+    /*
+     * The rules as a trie over 'a'..'z'.  Node 0 is the root; CHILD holds
+     * the next node for every node and letter, 0 if none, and MATCH the
+     * jamo a node spells, NONE if it is only a prefix.
+     */
+    private final static int MAX_NODES = 64;
+    private final static byte[] CHILD = new byte[MAX_NODES * 26];
+    private final static byte[] MATCH = new byte[MAX_NODES];
+    /** Nodes that match only before a letter that does not start a vowel. */
+    private final static boolean[] BEFORE_CONSONANT = new boolean[MAX_NODES];
+    /** Nodes a longer rule continues, or that need to see the next letter. */
+    private final static boolean[] OPEN = new boolean[MAX_NODES];
+    private final static boolean[] VOWEL_START = new boolean[26];
+
+    static {
+        Arrays.fill(MATCH, (byte) NONE);
+        int nodes = 1;
+        for (int jamo = 0; jamo < RULES.length; jamo++) {
+            if (RULES[jamo] != null) {
+                nodes = addRule(RULES[jamo], jamo, nodes);
+            }
+        }
+        addRule(L_RULE, 8, nodes);
+    }
+
+    /**
+     * Adds one rule to the trie, which has {@code nodes} nodes so far.
+     * Returns how many it has after.
+     */
+    private static int addRule(String rule, int jamo, int nodes) {
+        boolean beforeConsonant = rule.charAt(0) == '-';
+        if (beforeConsonant) {
+            rule = rule.substring(1);
+        }
+        int node = 0;
+        for (int i = 0; i < rule.length(); i++) {
+            int edge = node * 26 + rule.charAt(i) - 'a';
+            if (CHILD[edge] == 0) {
+                CHILD[edge] = (byte) nodes++;
+            }
+            if (node != 0) {
+                // A prefix of a longer rule ("y", "c", "n") waits for more.
+                OPEN[node] = true;
+            }
+            node = CHILD[edge];
+        }
+        MATCH[node] = (byte) jamo;
+        BEFORE_CONSONANT[node] = beforeConsonant;
+        OPEN[node] |= beforeConsonant;
+        if (jamo >= JUNG) {
+            VOWEL_START[rule.charAt(0) - 'a'] = true;
+        }
+        return nodes;
+    }
+
+    private long mBase = HangulComposer.EMPTY;  // the state before the pending letters
+    private long mState = HangulComposer.EMPTY; // what is shown
+    private final char[] mPending = new char[MAX_PENDING + 1];
+    private int mPendingLength;
+    private int mRawFrom; // pending letters from here on are shown as typed
+
+    /*
+     * Ring buffer of what letters started from: mBase, the pending letters
+     * (5 bits each, their count from bit 15 on) and the characters the
+     * letter settled, MAX_SETTLED slots each, their count in mUndoSettled.
+     */
+    private final long[] mUndoBase = new long[UNDO_DEPTH];
+    private final int[] mUndoPending = new int[UNDO_DEPTH];
+    private final char[] mUndoCommits = new char[UNDO_DEPTH * MAX_SETTLED];
+    private final byte[] mUndoSettled = new byte[UNDO_DEPTH];
+    private int mUndoTop;
+    private int mUndoSize;
+
+    // Characters the shown reading of the pending letters committed, which
+    // a different reading takes back.
+    private final StringBuilder mShownCommits = new StringBuilder(MAX_SETTLED + MAX_PENDING + 1);
+    private final StringBuilder mCommits = new StringBuilder(2 * MAX_PENDING + 2);
+
+    private final StringBuilder mCommit = new StringBuilder(4);
+    private final StringBuilder mComposingText = new StringBuilder(MAX_PENDING + 1);
+    private int mDeleteBefore;
+
+    public static boolean isKey(int primaryCode) {
+        return (primaryCode >= 'a' && primaryCode <= 'z')
+                || (primaryCode >= 'A' && primaryCode <= 'Z');
+    }
+
+    public CharSequence getCommitText() {
+        return mCommit;
+    }
+
+    public int getDeleteBefore() {
+        return mDeleteBefore;
+    }
+
+    public CharSequence getComposingText() {
+        return mComposingText;
+    }
+
+    public boolean isComposing() {
+        return mComposingText.length() > 0;
+    }
+
+    public void reset() {
+        mBase = HangulComposer.EMPTY;
+        mState = HangulComposer.EMPTY;
+        mPendingLength = 0;
+        mRawFrom = 0;
+        mUndoSize = 0;
+        mShownCommits.setLength(0);
+        mCommit.setLength(0);
+        mComposingText.setLength(0);
+        mDeleteBefore = 0;
+    }
+
+    /**
+     * Feeds one letter; see {@link #isKey}.  Case does not matter.
+     */
+    public void process(int primaryCode) {
+        char letter = (char) (primaryCode | 0x20);
+        int pending = mPendingLength << 15;
+        for (int i = 0; i < mPendingLength; i++) {
+            pending |= (mPending[i] - 'a') << (5 * i);
+        }
+        mUndoBase[mUndoTop] = mBase;
+        mUndoPending[mUndoTop] = pending;
+
+        mCommits.setLength(0);
+        settle(letter);
+        int settled = mCommits.length();
+        mCommits.getChars(0, settled, mUndoCommits, mUndoTop * MAX_SETTLED);
+        mUndoSettled[mUndoTop] = (byte) settled;
+        mUndoTop = (mUndoTop + 1) % UNDO_DEPTH;
+        if (mUndoSize < UNDO_DEPTH) {
+            mUndoSize++;
+        }
+        show(settled);
+    }
+
+    /**
+     * Adds a letter to the pending ones and settles what it decides, on
+     * top of {@link #mBase}, collecting what is committed.
+     */
+    private void settle(char letter) {
+        mPending[mPendingLength++] = letter;
+
+        // Each pass settles at least one letter, and there are at most
+        // MAX_PENDING + 1 of them.
+        long state = mBase;
+        while (mPendingLength > 0) {
+            int node = walk(mPendingLength);
+            if (node > 0 && OPEN[node]) {
+                break;
+            }
+            int length = node > 0 ? mPendingLength : longestMatch(mPendingLength);
+            state = apply(state, length > 0 ? MATCH[walk(length)] : NONE, mPending[0],
+                    vowelAt(length));
+            length = Math.max(length, 1);
+            mPendingLength -= length;
+            System.arraycopy(mPending, length, mPending, 0, mPendingLength);
+        }
+        mBase = state;
+    }
+
+    /**
+     * Shows the pending letters read as the end of the word, on top of
+     * {@link #mBase}, and works out what to take back and commit.
+     * {@code settled} is how many of {@link #mCommits} came from letters
+     * that are no longer pending.
+     */
+    private void show(int settled) {
+        long state = mBase;
+        int from = 0;
+        mRawFrom = mPendingLength;
+        while (from < mPendingLength) {
+            int length = longestMatch(mPendingLength - from, from);
+            if (length == 0) {
+                // Not Hangul yet ("y" before its vowel): shown as typed.
+                mRawFrom = from;
+                break;
+            }
+            state = apply(state, MATCH[walk(from, length)], mPending[from],
+                    vowelAt(from + length));
+            from += length;
+        }
+        mState = state;
+
+        // Both the old and the new commits start from the old base.
+        int same = 0;
+        int max = Math.min(mShownCommits.length(), mCommits.length());
+        while (same < max && mShownCommits.charAt(same) == mCommits.charAt(same)) {
+            same++;
+        }
+        mCommit.setLength(0);
+        mDeleteBefore = mShownCommits.length() - same;
+        mCommit.append(mCommits, same, mCommits.length());
+        mShownCommits.setLength(0);
+        mShownCommits.append(mCommits, settled, mCommits.length());
+
+        mComposingText.setLength(0);
+        char composing = HangulComposer.composingChar(mState);
+        if (composing != 0) {
+            mComposingText.append(composing);
+        }
+        mComposingText.append(mPending, mRawFrom, mPendingLength - mRawFrom);
+    }
+
+    /**
+     * Steps {@code state} with one matched jamo, or with {@code letter}
+     * itself if nothing matched, collecting what is committed.
+     * {@code vowelNext} tells if a vowel follows.
+     */
+    private long apply(long state, int jamo, char letter, boolean vowelNext) {
+        if (jamo == NONE) {
+            char composing = HangulComposer.composingChar(state);
+            if (composing != 0) {
+                mCommits.append(composing);
+            }
+            mCommits.append(letter);
+            return HangulComposer.EMPTY;
+        }
+        if (jamo >= JUNG) {
+            if (needsSilentIeung(state)) {
+                state = step(state, SILENT_IEUNG);
+            }
+        } else if (!vowelNext && takesFinal(state)) {
+            if (jamo == KHIEUKH) {
+                jamo = KIYEOK;
+            } else if (jamo == THIEUTH) {
+                jamo = SIOS;
+            } else if (jamo == PHIEUPH) {
+                jamo = PIEUP;
+            }
+        }
+        return step(state, jamo);
+    }
+
+    private long step(long state, int jamo) {
+        state = HangulComposer.step(state, jamo);
+        char committed = HangulComposer.committedChar(state);
+        if (committed != 0) {
+            mCommits.append(committed);
+        }
+        return state;
+    }
+
+    /**
+     * A vowel needs a consonant in front: it has none if nothing is
+     * composing or the syllable ends in a vowel.
+     */
+    private static boolean needsSilentIeung(long state) {
+        return !HangulComposer.isComposing(state) || takesFinal(state);
+    }
+
+    /**
+     * A syllable still open for its final consonant.
+     */
+    private static boolean takesFinal(long state) {
+        int packed = HangulSyllables.decompose(HangulComposer.composingChar(state));
+        return packed != 0
+                && HangulSyllables.jung(packed) >= 0 && HangulSyllables.jong(packed) < 0;
+    }
+
+    /**
+     * Whether the pending letter at {@code index} starts a vowel.
+     */
+    private boolean vowelAt(int index) {
+        return index < mPendingLength && VOWEL_START[mPending[index] - 'a'];
+    }
+
+    private int walk(int length) {
+        return walk(0, length);
+    }
+
+    /**
+     * The trie node the pending letters from {@code from} on spell, 0 if
+     * they are no rule or prefix of one.
+     */
+    private int walk(int from, int length) {
+        int node = 0;
+        for (int i = from; i < from + length; i++) {
+            node = CHILD[node * 26 + mPending[i] - 'a'];
+            if (node == 0) {
+                return 0;
+            }
+        }
+        return node;
+    }
+
+    private int longestMatch(int length) {
+        return longestMatch(length, 0);
+    }
+
+    /**
+     * Length of the longest rule at the start of the {@code length}
+     * pending letters from {@code from} on, allowing for what follows it,
+     * or 0 if none matches.
+     */
+    private int longestMatch(int length, int from) {
+        int best = 0;
+        int node = 0;
+        for (int i = 0; i < length; i++) {
+            node = CHILD[node * 26 + mPending[from + i] - 'a'];
+            if (node == 0) {
+                break;
+            }
+            if (MATCH[node] != NONE) {
+                if (!BEFORE_CONSONANT[node] || !vowelAt(from + i + 1)) {
+                    best = i + 1;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Takes back the last letter typed, going back to the state it started
+     * from; once the undo stack is used up, takes back the last letter
+     * while it is pending, then the jamo of the composing syllable one by
+     * one.
+     */
+    public boolean backspace() {
+        mCommits.setLength(0);
+        if (mUndoSize > 0) {
+            mUndoTop = (mUndoTop + UNDO_DEPTH - 1) % UNDO_DEPTH;
+            mUndoSize--;
+            mBase = mUndoBase[mUndoTop];
+            int pending = mUndoPending[mUndoTop];
+            mPendingLength = pending >>> 15;
+            for (int i = 0; i < mPendingLength; i++) {
+                mPending[i] = (char) ('a' + (pending >>> (5 * i) & 0x1f));
+            }
+            // What the letter settled stands to be taken back as well.
+            mShownCommits.insert(0, mUndoCommits, mUndoTop * MAX_SETTLED, mUndoSettled[mUndoTop]);
+            show(0);
+            return true;
+        }
+        if (mPendingLength > 0) {
+            mPendingLength--;
+        } else if (HangulComposer.isComposing(mBase)) {
+            mBase = HangulComposer.removeLastJamo(mBase);
+            if (HangulComposer.composingChar(mBase) == HangulSyllables.JAMO_FIRST + SILENT_IEUNG) {
+                // The ㅇ was added for the vowel just taken back.
+                mBase = HangulComposer.EMPTY;
+            }
+        } else {
+            mCommit.setLength(0);
+            mDeleteBefore = 0;
+            return false;
+        }
+        show(0);
+        return true;
+    }
+
+    public boolean resume(char c) {
+        long state = HangulComposer.resumeState(c);
+        if (state == HangulComposer.EMPTY) {
+            return false;
+        }
+        reset();
+        mBase = state;
+        show(0);
+        return true;
+    }
+}